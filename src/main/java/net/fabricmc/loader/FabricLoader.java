@@ -26,12 +26,17 @@ import net.fabricmc.loader.launch.common.FabricLauncherBase;
 import net.fabricmc.loader.launch.knot.Knot;
 import net.fabricmc.loader.metadata.EntrypointMetadata;
 import net.fabricmc.loader.metadata.LoaderModMetadata;
+import net.fabricmc.loader.transformer.EnvironmentStripIndex;
 import net.fabricmc.loader.util.DefaultLanguageAdapter;
+import net.fabricmc.loader.util.UrlConversionException;
+import net.fabricmc.loader.util.UrlUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -182,10 +187,16 @@ public class FabricLoader implements net.fabricmc.loader.api.FabricLoader {
 	}
 
 	protected void finishModLoading() {
+		Path stripIndexDir = gameDir.toPath().resolve(".fabric").resolve("stripIndex");
+
 		// add mods to classpath
 		// TODO: This can probably be made safer, but that's a long-term goal
 		for (ModContainer mod : mods) {
 			if (!mod.getInfo().getId().equals("fabricloader")) {
+				if (!mod.getInfo().getId().equals(provider.getGameId())) {
+					indexEnvironmentStripping(mod, stripIndexDir);
+				}
+
 				FabricLauncherBase.getLauncher().propose(mod.getOriginUrl());
 			}
 		}
@@ -193,6 +204,18 @@ public class FabricLoader implements net.fabricmc.loader.api.FabricLoader {
 		postprocessModMetadata();
 	}
 
+	private void indexEnvironmentStripping(ModContainer mod, Path stripIndexDir) {
+		try {
+			Path path = UrlUtil.asPath(mod.getOriginUrl());
+
+			if (Files.isRegularFile(path)) {
+				EnvironmentStripIndex.index(path, stripIndexDir);
+			}
+		} catch (UrlConversionException | RuntimeException e) {
+			LOGGER.debug("Could not index mod " + mod.getInfo().getId() + " for environment stripping", e);
+		}
+	}
+
 	@Override
 	public <T> List<T> getEntrypoints(String key, Class<T> type) {
 		return entrypointStorage.getEntrypoints(key, type);
@@ -202,7 +225,7 @@ public class FabricLoader implements net.fabricmc.loader.api.FabricLoader {
 	public MappingResolver getMappingResolver() {
 		if (mappingResolver == null) {
 			mappingResolver = new FabricMappingResolver(
-				FabricLauncherBase.getLauncher().getMappingConfiguration()::getMappings,
+				FabricLauncherBase.getLauncher().getMappingConfiguration()::getCompiledMappings,
 				FabricLauncherBase.getLauncher().getTargetNamespace()
 			);
 		}
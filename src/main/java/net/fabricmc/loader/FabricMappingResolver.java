@@ -17,61 +17,36 @@
 package net.fabricmc.loader;
 
 import net.fabricmc.loader.api.MappingResolver;
-import net.fabricmc.mappings.*;
+import net.fabricmc.loader.util.mappings.CompiledMappings;
 
 import java.util.*;
-import java.util.function.Function;
 import java.util.function.Supplier;
 
+/**
+ * Answers lookups straight from the {@link CompiledMappings}, which are immutable, so the resolver is safe to use
+ * from multiple threads and builds no tables of its own.
+ */
 class FabricMappingResolver implements MappingResolver {
-	private final Supplier<Mappings> mappingsSupplier;
+	private final CompiledMappings mappings;
 	private final Set<String> namespaces;
-	private final Map<String, NamespaceData> namespaceDataMap = new HashMap<>();
 	private final String targetNamespace;
+	private final int targetNamespaceId;
 
-	private static class NamespaceData {
-		private final Map<String, String> classNames = new HashMap<>();
-		private final Map<String, String> classNamesInverse = new HashMap<>();
-		private final Map<EntryTriple, String> fieldNames = new HashMap<>();
-		private final Map<EntryTriple, String> methodNames = new HashMap<>();
-	}
-
-	FabricMappingResolver(Supplier<Mappings> mappingsSupplier, String targetNamespace) {
-		this.mappingsSupplier = mappingsSupplier;
+	FabricMappingResolver(Supplier<CompiledMappings> mappingsSupplier, String targetNamespace) {
+		this.mappings = mappingsSupplier.get();
 		this.targetNamespace = targetNamespace;
-		namespaces = Collections.unmodifiableSet(new HashSet<>(mappingsSupplier.get().getNamespaces()));
+		this.targetNamespaceId = mappings.getNamespaceId(targetNamespace);
+		namespaces = Collections.unmodifiableSet(new HashSet<>(mappings.getNamespaces()));
 	}
 
-	protected final NamespaceData getNamespaceData(String namespace) {
-		return namespaceDataMap.computeIfAbsent(namespace, (ns) -> {
-			if (!namespaces.contains(namespace)) {
-				throw new IllegalArgumentException("Unknown namespace: " + namespace);
-			}
-
-			NamespaceData data = new NamespaceData();
-			Mappings mappings = mappingsSupplier.get();
-			Map<String, String> classNameMap = new HashMap<>();
-			Function<String, String> classMapper = (s) -> classNameMap.computeIfAbsent(s, (cname) -> cname.replace('/', '.'));
-			Function<EntryTriple, EntryTriple> tripletMapper = (s) -> new EntryTriple(classMapper.apply(s.getOwner()), s.getName(), s.getDesc());
-
-			for (ClassEntry classEntry : mappings.getClassEntries()) {
-				String fromClass = classMapper.apply(classEntry.get(ns));
-				String toClass = classMapper.apply(classEntry.get(targetNamespace));
+	protected final int getNamespaceId(String namespace) {
+		int id = mappings.getNamespaceId(namespace);
 
-				data.classNames.put(fromClass, toClass);
-				data.classNamesInverse.put(toClass, fromClass);
-			}
-
-			for (FieldEntry fieldEntry : mappings.getFieldEntries()) {
-				data.fieldNames.put(tripletMapper.apply(fieldEntry.get(ns)), fieldEntry.get(targetNamespace).getName());
-			}
-
-			for (MethodEntry methodEntry : mappings.getMethodEntries()) {
-				data.methodNames.put(tripletMapper.apply(methodEntry.get(ns)), methodEntry.get(targetNamespace).getName());
-			}
+		if (id < 0) {
+			throw new IllegalArgumentException("Unknown namespace: " + namespace);
+		}
 
-			return data;
-		});
+		return id;
 	}
 
 	@Override
@@ -90,7 +65,7 @@ class FabricMappingResolver implements MappingResolver {
 			throw new IllegalArgumentException("Class names must be provided in dot format: " + className);
 		}
 
-		return getNamespaceData(namespace).classNames.getOrDefault(className, className);
+		return mapClass(getNamespaceId(namespace), targetNamespaceId, className);
 	}
 
 	@Override
@@ -99,7 +74,7 @@ class FabricMappingResolver implements MappingResolver {
 			throw new IllegalArgumentException("Class names must be provided in dot format: " + className);
 		}
 
-		return getNamespaceData(namespace).classNamesInverse.getOrDefault(className, className);
+		return mapClass(targetNamespaceId, getNamespaceId(namespace), className);
 	}
 
 	@Override
@@ -108,7 +83,7 @@ class FabricMappingResolver implements MappingResolver {
 			throw new IllegalArgumentException("Class names must be provided in dot format: " + owner);
 		}
 
-		return getNamespaceData(namespace).fieldNames.getOrDefault(new EntryTriple(owner, name, descriptor), name);
+		return mapMember(mappings.getFields(), getNamespaceId(namespace), owner, name, descriptor);
 	}
 
 	@Override
@@ -117,6 +92,76 @@ class FabricMappingResolver implements MappingResolver {
 			throw new IllegalArgumentException("Class names must be provided in dot format: " + owner);
 		}
 
-		return getNamespaceData(namespace).methodNames.getOrDefault(new EntryTriple(owner, name, descriptor), name);
+		return mapMember(mappings.getMethods(), getNamespaceId(namespace), owner, name, descriptor);
+	}
+
+	@Override
+	public String[] mapClassNames(String namespace, String[] classNames) {
+		int from = getNamespaceId(namespace);
+		String[] result = new String[classNames.length];
+
+		for (int i = 0; i < classNames.length; i++) {
+			if (classNames[i].indexOf('/') >= 0) {
+				throw new IllegalArgumentException("Class names must be provided in dot format: " + classNames[i]);
+			}
+
+			result[i] = mapClass(from, targetNamespaceId, classNames[i]);
+		}
+
+		return result;
+	}
+
+	@Override
+	public String[] mapFieldNames(String namespace, String[] owners, String[] names, String[] descriptors) {
+		return mapMembers(mappings.getFields(), namespace, owners, names, descriptors);
+	}
+
+	@Override
+	public String[] mapMethodNames(String namespace, String[] owners, String[] names, String[] descriptors) {
+		return mapMembers(mappings.getMethods(), namespace, owners, names, descriptors);
+	}
+
+	@Override
+	public String mapDescriptor(String namespace, String descriptor) {
+		int from = getNamespaceId(namespace);
+		return targetNamespaceId >= 0 ? mappings.mapDesc(descriptor, from, targetNamespaceId) : descriptor;
+	}
+
+	private String[] mapMembers(CompiledMappings.Table members, String namespace, String[] owners, String[] names, String[] descriptors) {
+		if (owners.length != names.length || names.length != descriptors.length) {
+			throw new IllegalArgumentException("Owners, names and descriptors must be of the same length");
+		}
+
+		int from = getNamespaceId(namespace);
+		String[] result = new String[names.length];
+
+		for (int i = 0; i < names.length; i++) {
+			if (owners[i].indexOf('/') >= 0) {
+				throw new IllegalArgumentException("Class names must be provided in dot format: " + owners[i]);
+			}
+
+			result[i] = mapMember(members, from, owners[i], names[i], descriptors[i]);
+		}
+
+		return result;
+	}
+
+	private String mapClass(int from, int to, String className) {
+		if (to < 0) {
+			return className;
+		}
+
+		CompiledMappings.Table classes = mappings.getClasses();
+		int row = classes.find(from, className, '.');
+		return row >= 0 ? classes.getName(to, row, '.') : className;
+	}
+
+	private String mapMember(CompiledMappings.Table members, int from, String owner, String name, String descriptor) {
+		if (targetNamespaceId < 0) {
+			return name;
+		}
+
+		int row = members.find(from, owner, name, descriptor, '.');
+		return row >= 0 ? members.getName(targetNamespaceId, row) : name;
 	}
 }
@@ -80,4 +80,95 @@ public interface MappingResolver {
 	 * @return The mapped method name, or name if such a mapping is not present.
 	 */
 	String mapMethodName(String namespace, String owner, String name, String descriptor);
+
+	/**
+	 * Map a batch of class names to the mapping currently used at runtime, see {@link #mapClassName}.
+	 *
+	 * @param namespace The namespace of the provided class names.
+	 * @param classNames The provided class names, in dot-format ("mypackage.MyClass$Inner").
+	 * @return The mapped class names, in the same order, with the unmapped ones unchanged.
+	 * @since 0.6.2
+	 */
+	default String[] mapClassNames(String namespace, String[] classNames) {
+		String[] result = new String[classNames.length];
+
+		for (int i = 0; i < classNames.length; i++) {
+			result[i] = mapClassName(namespace, classNames[i]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Map a batch of field names to the mapping currently used at runtime, see {@link #mapFieldName}.
+	 *
+	 * @param namespace The namespace of the provided fields.
+	 * @param owners The owners of the fields, in dot-format ("mypackage.MyClass$Inner").
+	 * @param names The names of the fields.
+	 * @param descriptors The descriptors of the fields.
+	 * @return The mapped field names, in the same order, with the unmapped ones unchanged.
+	 * @throws IllegalArgumentException If the arrays aren't of the same length.
+	 * @since 0.6.2
+	 */
+	default String[] mapFieldNames(String namespace, String[] owners, String[] names, String[] descriptors) {
+		if (owners.length != names.length || names.length != descriptors.length) {
+			throw new IllegalArgumentException("Owners, names and descriptors must be of the same length");
+		}
+
+		String[] result = new String[names.length];
+
+		for (int i = 0; i < names.length; i++) {
+			result[i] = mapFieldName(namespace, owners[i], names[i], descriptors[i]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Map a batch of method names to the mapping currently used at runtime, see {@link #mapMethodName}.
+	 *
+	 * @param namespace The namespace of the provided methods.
+	 * @param owners The owners of the methods, in dot-format ("mypackage.MyClass$Inner").
+	 * @param names The names of the methods.
+	 * @param descriptors The descriptors of the methods.
+	 * @return The mapped method names, in the same order, with the unmapped ones unchanged.
+	 * @throws IllegalArgumentException If the arrays aren't of the same length.
+	 * @since 0.6.2
+	 */
+	default String[] mapMethodNames(String namespace, String[] owners, String[] names, String[] descriptors) {
+		if (owners.length != names.length || names.length != descriptors.length) {
+			throw new IllegalArgumentException("Owners, names and descriptors must be of the same length");
+		}
+
+		String[] result = new String[names.length];
+
+		for (int i = 0; i < names.length; i++) {
+			result[i] = mapMethodName(namespace, owners[i], names[i], descriptors[i]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Map the class names in a field or method descriptor to the mapping currently used at runtime.
+	 *
+	 * @param namespace The namespace of the provided descriptor.
+	 * @param descriptor The descriptor, e.g. "(Lmypackage/MyClass;I)V".
+	 * @return The mapped descriptor, or descriptor if none of its classes are mapped.
+	 * @since 0.6.2
+	 */
+	default String mapDescriptor(String namespace, String descriptor) {
+		StringBuilder builder = new StringBuilder(descriptor.length());
+		int copied = 0;
+		int start;
+
+		while ((start = descriptor.indexOf('L', copied)) >= 0) {
+			int end = descriptor.indexOf(';', start);
+			String className = mapClassName(namespace, descriptor.substring(start + 1, end).replace('/', '.'));
+			builder.append(descriptor, copied, start + 1).append(className.replace('.', '/'));
+			copied = end;
+		}
+
+		return builder.append(descriptor, copied, descriptor.length()).toString();
+	}
 }
@@ -43,11 +43,7 @@ public abstract class EntrypointPatch {
 	}
 
 	protected boolean classExists(FabricLauncher launcher, String className) {
-		try {
-			return launcher.getClassByteArray(className) != null;
-		} catch (IOException e) {
-			return false;
-		}
+		return transformer.classExists(launcher, className);
 	}
 
 	protected ClassNode loadClass(FabricLauncher launcher, String className) throws IOException {
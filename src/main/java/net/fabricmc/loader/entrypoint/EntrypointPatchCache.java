@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.entrypoint;
+
+import net.fabricmc.loader.launch.common.FabricLauncher;
+import net.fabricmc.loader.util.UrlConversionException;
+import net.fabricmc.loader.util.UrlUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores the classes produced by the entrypoint patches, along with hashes of every class the patches read.
+ *
+ * <p>The patches are a pure function of the classes they read and of the loader itself, so as long as those
+ * classes hash the same and the loader JAR is unchanged, the stored output is reused without building or scanning
+ * any class trees.</p>
+ */
+final class EntrypointPatchCache {
+	private static final int FORMAT_VERSION = 1;
+	private static final byte[] ABSENT = new byte[0];
+
+	private final Path file;
+	private final String key;
+	private final Map<String, byte[]> inputHashes = new LinkedHashMap<>();
+
+	EntrypointPatchCache(Path file, String key) {
+		this.file = file;
+		this.key = key;
+	}
+
+	/**
+	 * @return The cache, or null if the loader isn't running from a JAR whose changes could be detected.
+	 */
+	static EntrypointPatchCache create(FabricLauncher launcher, Path file) {
+		CodeSource codeSource = EntrypointPatchCache.class.getProtectionDomain().getCodeSource();
+		if (codeSource == null || codeSource.getLocation() == null) {
+			return null;
+		}
+
+		try {
+			Path loaderJar = UrlUtil.asPath(codeSource.getLocation());
+
+			if (!Files.isRegularFile(loaderJar)) {
+				return null;
+			}
+
+			String key = launcher.getEnvironmentType().name() + "|" + launcher.getEntrypoint() + "|" + launcher.isDevelopment()
+				+ "|" + loaderJar.toAbsolutePath() + "|" + Files.size(loaderJar) + "|" + Files.getLastModifiedTime(loaderJar).toMillis();
+			return new EntrypointPatchCache(file, key);
+		} catch (UrlConversionException | IOException e) {
+			return null;
+		}
+	}
+
+	void recordInput(String className, byte[] data) {
+		inputHashes.putIfAbsent(className, hash(data));
+	}
+
+	/**
+	 * @return The stored applet main class (empty if none), or null if there is no valid cached result.
+	 */
+	String load(FabricLauncher launcher, Map<String, byte[]> patchedClasses) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			long fileSize = Files.size(file);
+
+			if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key)) {
+				return null;
+			}
+
+			String appletMainClass = in.readUTF();
+			int inputCount = in.readInt();
+
+			for (int i = 0; i < inputCount; i++) {
+				String className = in.readUTF();
+				byte[] expectedHash = readBytes(in, fileSize);
+
+				if (!Arrays.equals(expectedHash, hash(launcher.getClassByteArray(className)))) {
+					return null;
+				}
+			}
+
+			int outputCount = in.readInt();
+
+			for (int i = 0; i < outputCount; i++) {
+				String className = in.readUTF();
+				patchedClasses.put(className, readBytes(in, fileSize));
+			}
+
+			return appletMainClass;
+		} catch (IOException | RuntimeException e) {
+			// a corrupt file is just a miss, it gets rewritten once the patches have run
+			patchedClasses.clear();
+			return null;
+		}
+	}
+
+	void save(Map<String, byte[]> patchedClasses, String appletMainClass) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(key);
+			out.writeUTF(appletMainClass != null ? appletMainClass : "");
+			out.writeInt(inputHashes.size());
+
+			for (Map.Entry<String, byte[]> entry : inputHashes.entrySet()) {
+				out.writeUTF(entry.getKey());
+				writeBytes(out, entry.getValue());
+			}
+
+			out.writeInt(patchedClasses.size());
+
+			for (Map.Entry<String, byte[]> entry : patchedClasses.entrySet()) {
+				out.writeUTF(entry.getKey());
+				writeBytes(out, entry.getValue());
+			}
+		}
+
+		Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static byte[] hash(byte[] data) {
+		if (data == null) {
+			return ABSENT;
+		}
+
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte[] readBytes(DataInputStream in, long fileSize) throws IOException {
+		int length = in.readInt();
+
+		if (length < 0 || length > fileSize) {
+			throw new IOException("Invalid entry length " + length);
+		}
+
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return data;
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+		out.writeInt(data.length);
+		out.write(data);
+	}
+}
@@ -25,25 +25,38 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
 
 public class EntrypointTransformer {
 	public static String appletMainClass;
 
 	public final Logger logger = LogManager.getFormatterLogger("FabricLoader|EntrypointTransformer");
+	private static final int MAX_TABLE_SIZE = 1024;
+
 	private final List<EntrypointPatch> patches;
-	private Map<String, byte[]> patchedClasses;
+	private Map<String, byte[]> patchedClasses; // only while locating entrypoints
+	private EntrypointPatchCache patchCache; // only while locating entrypoints
 	private boolean entrypointsLocated = false;
 
+	// Frozen lookup table for the patched classes, open addressed and grown until no two names share a slot, so
+	// that checking an unpatched class takes a single probe. Entries are released once their class is defined.
+	private String[] patchedNames = new String[1];
+	private AtomicReferenceArray<byte[]> patchedData = new AtomicReferenceArray<>(1);
+	private final AtomicInteger remainingPatchedClasses = new AtomicInteger();
+
 	public EntrypointTransformer(Function<EntrypointTransformer, List<EntrypointPatch>> patches) {
 		this.patches = ImmutableList.copyOf(patches.apply(this));
 	}
 
 	ClassNode loadClass(FabricLauncher launcher, String className) throws IOException {
-		byte[] data = patchedClasses.containsKey(className) ? patchedClasses.get(className) : launcher.getClassByteArray(className);
+		byte[] data = patchedClasses.containsKey(className) ? patchedClasses.get(className) : readClass(launcher, className);
 		if (data != null) {
 			ClassReader reader = new ClassReader(data);
 			ClassNode node = new ClassNode();
@@ -54,6 +67,24 @@ public class EntrypointTransformer {
 		}
 	}
 
+	boolean classExists(FabricLauncher launcher, String className) {
+		try {
+			return readClass(launcher, className) != null;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private byte[] readClass(FabricLauncher launcher, String className) throws IOException {
+		byte[] data = launcher.getClassByteArray(className);
+
+		if (patchCache != null) {
+			patchCache.recordInput(className, data);
+		}
+
+		return data;
+	}
+
 	private void addPatchedClass(ClassNode node) {
 		String key = node.name.replace('/', '.');
 		if (patchedClasses.containsKey(key)) {
@@ -66,6 +97,13 @@ public class EntrypointTransformer {
 	}
 
 	public void locateEntrypoints(FabricLauncher launcher) {
+		locateEntrypoints(launcher, null);
+	}
+
+	/**
+	 * @param cacheFile Where to store the patched classes to reuse them on the next launch, or null to always patch.
+	 */
+	public void locateEntrypoints(FabricLauncher launcher, Path cacheFile) {
 		if (entrypointsLocated) {
 			return;
 		}
@@ -73,8 +111,92 @@ public class EntrypointTransformer {
 		entrypointsLocated = true;
 		patchedClasses = new HashMap<>();
 
-		patches.forEach((e) -> e.process(launcher, this::addPatchedClass));
-		logger.debug("[EntrypointTransformer] Patched " + (patchedClasses.size() == 1 ? "1 class." : (patchedClasses.size() + " classes.")));
+		EntrypointPatchCache cache = cacheFile != null ? EntrypointPatchCache.create(launcher, cacheFile) : null;
+		String cachedAppletMainClass = cache != null ? cache.load(launcher, patchedClasses) : null;
+
+		if (cachedAppletMainClass != null) {
+			if (!cachedAppletMainClass.isEmpty()) {
+				appletMainClass = cachedAppletMainClass;
+			}
+
+			logger.debug("[EntrypointTransformer] Reused " + (patchedClasses.size() == 1 ? "1 patched class." : (patchedClasses.size() + " patched classes.")));
+		} else {
+			patchCache = cache;
+			patches.forEach((e) -> e.process(launcher, this::addPatchedClass));
+			patchCache = null;
+			logger.debug("[EntrypointTransformer] Patched " + (patchedClasses.size() == 1 ? "1 class." : (patchedClasses.size() + " classes.")));
+
+			if (cache != null) {
+				try {
+					cache.save(patchedClasses, appletMainClass);
+				} catch (IOException e) {
+					logger.warn("Failed to save patched entrypoint classes to " + cacheFile, e);
+				}
+			}
+		}
+
+		freezePatchedClasses();
+		patchedClasses = null;
+	}
+
+	private void freezePatchedClasses() {
+		int size = Integer.highestOneBit(Math.max(1, patchedClasses.size() * 4 - 1)) << 1;
+
+		while (size < MAX_TABLE_SIZE && !isCollisionFree(patchedClasses.keySet(), size)) {
+			size <<= 1;
+		}
+
+		String[] names = new String[size];
+		AtomicReferenceArray<byte[]> data = new AtomicReferenceArray<>(size);
+
+		for (Map.Entry<String, byte[]> entry : patchedClasses.entrySet()) {
+			int slot = getSlot(entry.getKey(), size);
+
+			while (names[slot] != null) {
+				slot = (slot + 1) & (size - 1);
+			}
+
+			names[slot] = entry.getKey();
+			data.set(slot, entry.getValue());
+		}
+
+		patchedNames = names;
+		patchedData = data;
+		remainingPatchedClasses.set(patchedClasses.size());
+	}
+
+	private static boolean isCollisionFree(Collection<String> names, int size) {
+		boolean[] used = new boolean[size];
+
+		for (String name : names) {
+			int slot = getSlot(name, size);
+
+			if (used[slot]) {
+				return false;
+			}
+
+			used[slot] = true;
+		}
+
+		return true;
+	}
+
+	private static int getSlot(String name, int size) {
+		int hash = name.hashCode();
+		return (hash ^ (hash >>> 16)) & (size - 1);
+	}
+
+	private int findSlot(String className) {
+		String[] names = patchedNames;
+		int mask = names.length - 1;
+
+		for (int slot = getSlot(className, names.length); names[slot] != null; slot = (slot + 1) & mask) {
+			if (names[slot].equals(className)) {
+				return slot;
+			}
+		}
+
+		return -1;
 	}
 
 	/**
@@ -83,6 +205,27 @@ public class EntrypointTransformer {
 	 * @return The transformed class data.
 	 */
 	public byte[] transform(String className) {
-		return patchedClasses.get(className);
+		if (remainingPatchedClasses.get() == 0) {
+			return null;
+		}
+
+		int slot = findSlot(className);
+		return slot >= 0 ? patchedData.get(slot) : null;
+	}
+
+	/**
+	 * Drops the patched class data once the class has been defined and won't be asked for again.
+	 * @param className The class name.
+	 */
+	public void release(String className) {
+		if (remainingPatchedClasses.get() == 0) {
+			return;
+		}
+
+		int slot = findSlot(className);
+
+		if (slot >= 0 && patchedData.getAndSet(slot, null) != null) {
+			remainingPatchedClasses.decrementAndGet();
+		}
 	}
 }
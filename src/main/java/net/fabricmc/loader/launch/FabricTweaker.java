@@ -89,6 +89,7 @@ public abstract class FabricTweaker extends FabricLauncherBase implements ITweak
 
 		GameProvider provider = new MinecraftGameProvider();
 		provider.acceptArguments(arguments);
+		getMappingConfiguration().setCacheDirectory(provider.getLaunchDirectory().resolve(".fabric"));
 
 		if (!provider.locateGame(getEnvironmentType(), launchClassLoader)) {
 			throw new RuntimeException("Could not locate Minecraft: provider locate failed");
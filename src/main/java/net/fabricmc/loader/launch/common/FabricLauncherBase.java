@@ -17,11 +17,11 @@
 package net.fabricmc.loader.launch.common;
 
 import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.util.mappings.CompiledMappings;
 import net.fabricmc.loader.util.mappings.TinyRemapperMappingsHelper;
 import net.fabricmc.loader.util.UrlConversionException;
 import net.fabricmc.loader.util.UrlUtil;
 import net.fabricmc.loader.util.Arguments;
-import net.fabricmc.mappings.Mappings;
 import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import org.apache.logging.log4j.LogManager;
@@ -35,8 +35,10 @@ import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.jar.JarFile;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class FabricLauncherBase implements FabricLauncher {
 	public static Path minecraftJar;
@@ -64,6 +66,7 @@ public abstract class FabricLauncherBase implements FabricLauncher {
 		return mappingConfiguration;
 	}
 
+	private static final int MAX_REMAP_ATTEMPTS = 3;
 	private static boolean emittedInfo = false;
 
 	protected static void deobfuscate(String gameId, String gameVersion, Path gameDir, Path jarFile, FabricLauncher launcher) {
@@ -71,10 +74,9 @@ public abstract class FabricLauncherBase implements FabricLauncher {
 
 		LOGGER.debug("Requesting deobfuscation of " + jarFile.getFileName());
 
-		Mappings mappings = launcher.isDevelopment() ? null : mappingConfiguration.getMappings();
 		String targetNamespace = mappingConfiguration.getTargetNamespace();
 
-		if (mappings != null && mappings.getNamespaces().contains(targetNamespace)) {
+		if (!launcher.isDevelopment() && mappingConfiguration.getNamespaces().contains(targetNamespace)) {
 			LOGGER.debug("Fabric mapping file detected, applying...");
 
 			try {
@@ -82,109 +84,44 @@ public abstract class FabricLauncherBase implements FabricLauncher {
 					throw new RuntimeException("Could not locate Minecraft: " + jarFile + " not found");
 				}
 
-				Path deobfJarDir = gameDir.resolve(".fabric").resolve("remappedJars");
-
-				if (!gameId.isEmpty()) {
-					String versionedId = gameVersion.isEmpty() ? gameId : String.format("%s-%s", gameId, gameVersion);
-					deobfJarDir = deobfJarDir.resolve(versionedId);
-				}
+				Path deobfJarDir = getRemappedJarDir(gameId, gameVersion, gameDir);
 
 				if (!Files.exists(deobfJarDir)) {
 					Files.createDirectories(deobfJarDir);
 				}
 
-				// TODO: allow versioning mappings?
-				String deobfJarFilename = mappingConfiguration.getTargetNamespace() + "-" + jarFile.getFileName();
-				Path deobfJarFile = deobfJarDir.resolve(deobfJarFilename);
-				Path deobfJarFileTmp = deobfJarDir.resolve(deobfJarFilename + ".tmp");
-
-				if (Files.exists(deobfJarFileTmp)) {
-					LOGGER.warn("Incomplete remapped file found! This means that the remapping process failed on the previous launch. If this persists, make sure to let us at Fabric know!");
-					Files.deleteIfExists(deobfJarFile);
-					Files.deleteIfExists(deobfJarFileTmp);
+				String jarName = jarFile.getFileName().toString();
+				if (jarName.endsWith(".jar")) {
+					jarName = jarName.substring(0, jarName.length() - 4);
 				}
 
-				if (!Files.exists(deobfJarFile)) {
-					boolean found = false;
-					while (!found) {
-						if (!emittedInfo) {
-							LOGGER.info("Fabric is preparing JARs on first launch, this may take a few seconds...");
-							emittedInfo = true;
-						}
+				RemappedJarCache cache = new RemappedJarCache(deobfJarDir, targetNamespace + "-" + jarName);
+				String mappingsStamp = mappingConfiguration.getMappingsStamp();
+				Path deobfJarFile = cache.findCurrent(jarFile, mappingsStamp);
 
-						TinyRemapper remapper = TinyRemapper.newRemapper()
-							.withMappings(TinyRemapperMappingsHelper.create(mappings, "official", targetNamespace))
-							.rebuildSourceFilenames(true)
-							.build();
-
-						Set<Path> depPaths = new HashSet<>();
-
-						for (URL url : launcher.getLoadTimeDependencies()) {
-							try {
-								Path path = UrlUtil.asPath(url);
-								if (!Files.exists(path)) {
-									throw new RuntimeException("Path does not exist: " + path);
-								}
-
-								if (!path.equals(jarFile)) {
-									depPaths.add(path);
-								}
-							} catch (UrlConversionException e) {
-								throw new RuntimeException("Failed to convert '" + url + "' to path!", e);
-							}
-						}
+				if (deobfJarFile == null) {
+					String key = RemappedJarCache.computeKey(jarFile, mappingConfiguration.getMappingsHash(), targetNamespace);
+					deobfJarFile = cache.getEntry(key);
 
-						try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(deobfJarFileTmp)
-								// force jar despite the .tmp extension
-								.assumeArchive(true)
-								// don't accept class names from a blacklist of dependencies that Fabric itself utilizes
-								// TODO: really could use a better solution, as always...
-								.filter(clsName -> !clsName.startsWith("com/google/common/")
-										&& !clsName.startsWith("com/google/gson/")
-										&& !clsName.startsWith("com/google/thirdparty/")
-										&& !clsName.startsWith("org/apache/logging/log4j/"))
-								.build()) {
-							for (Path path : depPaths) {
-								LOGGER.debug("Appending '" + path + "' to remapper classpath");
-								remapper.readClassPath(path);
-							}
-							remapper.readInputs(jarFile);
-							remapper.apply(outputConsumer);
-						} catch (IOException e) {
-							throw new RuntimeException("Failed to remap '" + jarFile + "'!", e);
-						} finally {
-							remapper.finish();
-						}
+					// another process may be remapping the same JAR into a shared cache, wait for it and reuse its result
+					try (Closeable lock = cache.lock()) {
+						Path deobfJarFileTmp = cache.getTemporaryEntry(key);
 
-						// Minecraft doesn't tend to check if a ZipFileSystem is already present,
-						// so we clean up here.
-
-						depPaths.add(deobfJarFileTmp);
-						for (Path p : depPaths) {
-							try {
-								p.getFileSystem().close();
-							} catch (Exception e) {
-								// pass
-							}
-
-							try {
-								FileSystems.getFileSystem(new URI("jar:" + p.toUri())).close();
-							} catch (Exception e) {
-								// pass
-							}
+						if (Files.exists(deobfJarFileTmp)) {
+							// nobody else holds the lock, so whoever wrote this didn't finish
+							LOGGER.warn("Incomplete remapped file found! This means that the remapping process failed on the previous launch. If this persists, make sure to let us at Fabric know!");
+							Files.delete(deobfJarFileTmp);
 						}
 
-						try (JarFile jar = new JarFile(deobfJarFileTmp.toFile())) {
-							found = jar.stream().anyMatch((e) -> e.getName().endsWith(".class"));
+						if (!Files.exists(deobfJarFile)) {
+							remap(mappingConfiguration.getCompiledMappings(), targetNamespace, jarFile, deobfJarFile, deobfJarFileTmp, launcher);
 						}
 
-						if (!found) {
-							LOGGER.error("Generated deobfuscated JAR contains no classes! Trying again...");
-							Files.delete(deobfJarFileTmp);
-						} else {
-							Files.move(deobfJarFileTmp, deobfJarFile);
-						}
+						cache.commit(key, jarFile, mappingsStamp);
 					}
+
+					// unversioned JAR from older loader versions
+					Files.deleteIfExists(deobfJarDir.resolve(targetNamespace + "-" + jarFile.getFileName()));
 				}
 
 				if (!Files.exists(deobfJarFile)) {
@@ -208,6 +145,185 @@ public abstract class FabricLauncherBase implements FabricLauncher {
 		}
 	}
 
+	/**
+	 * Sets up remapping the classes of the game JAR as they are loaded, in place of {@link #deobfuscate}.
+	 * Doesn't set {@link #minecraftJar}, so it can't be used for providers that
+	 * {@link net.fabricmc.loader.game.GameProvider#requiresUrlClassLoader}.
+	 * @return The remapper, or null if there are no mappings to the target namespace and the JAR is used as it is.
+	 */
+	protected static LazyGameRemapper createLazyRemapper(String gameId, String gameVersion, Path gameDir, Path jarFile, FabricLauncher launcher) {
+		LazyGameRemapper remapper = null;
+		String targetNamespace = mappingConfiguration.getTargetNamespace();
+
+		if (!launcher.isDevelopment() && mappingConfiguration.getNamespaces().contains(targetNamespace)) {
+			try {
+				if (!Files.exists(jarFile)) {
+					throw new RuntimeException("Could not locate Minecraft: " + jarFile + " not found");
+				}
+
+				Path deobfJarDir = getRemappedJarDir(gameId, gameVersion, gameDir);
+
+				Files.createDirectories(deobfJarDir);
+
+				String jarName = jarFile.getFileName().toString();
+				if (jarName.endsWith(".jar")) {
+					jarName = jarName.substring(0, jarName.length() - 4);
+				}
+
+				RemappedJarCache cache = new RemappedJarCache(deobfJarDir, targetNamespace + "-" + jarName + "-classes", "");
+				String mappingsStamp = mappingConfiguration.getMappingsStamp();
+				Path classCacheDir = cache.findCurrent(jarFile, mappingsStamp);
+
+				if (classCacheDir == null) {
+					String key = RemappedJarCache.computeKey(jarFile, mappingConfiguration.getMappingsHash(), targetNamespace);
+					classCacheDir = cache.getEntry(key);
+
+					try (Closeable lock = cache.lock()) {
+						Files.createDirectories(classCacheDir);
+						cache.commit(key, jarFile, mappingsStamp);
+					}
+				}
+
+				remapper = new LazyGameRemapper(mappingConfiguration.getCompiledMappings(), "official", targetNamespace, jarFile, classCacheDir);
+				LOGGER.debug("Remapping classes of " + jarFile.getFileName() + " on demand");
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		try {
+			launcher.propose(UrlUtil.asUrl(jarFile));
+		} catch (UrlConversionException e) {
+			throw new RuntimeException(e);
+		}
+
+		// minecraftJar stays unset: there is no remapped JAR for ModLoader and FML to read classes from, which is why
+		// Knot doesn't remap lazily when they're present
+		return remapper;
+	}
+
+	/**
+	 * @return The directory to store remapped JARs in, {@code -Dfabric.loader.remapCacheDir} if set so several
+	 * instances on the same host can share them.
+	 */
+	private static Path getRemappedJarDir(String gameId, String gameVersion, Path gameDir) {
+		String sharedDir = System.getProperty("fabric.loader.remapCacheDir");
+		Path deobfJarDir = sharedDir != null ? Paths.get(sharedDir) : gameDir.resolve(".fabric").resolve("remappedJars");
+
+		if (!gameId.isEmpty()) {
+			String versionedId = gameVersion.isEmpty() ? gameId : String.format("%s-%s", gameId, gameVersion);
+			deobfJarDir = deobfJarDir.resolve(versionedId);
+		}
+
+		return deobfJarDir;
+	}
+
+	private static void remap(CompiledMappings mappings, String targetNamespace, Path jarFile, Path deobfJarFile, Path deobfJarFileTmp, FabricLauncher launcher) throws IOException {
+		int threads = Math.max(1, Integer.getInteger("fabric.loader.remapThreads", Runtime.getRuntime().availableProcessors()));
+
+		for (int attempt = 1; ; attempt++) {
+			if (!emittedInfo) {
+				LOGGER.info("Fabric is preparing JARs on first launch, this may take a few seconds...");
+				emittedInfo = true;
+			}
+
+			long time = System.currentTimeMillis();
+			TinyRemapper remapper = TinyRemapper.newRemapper()
+				.withMappings(TinyRemapperMappingsHelper.create(mappings, "official", targetNamespace))
+				.rebuildSourceFilenames(true)
+				.threads(threads)
+				.build();
+
+			Set<Path> depPaths = new HashSet<>();
+
+			for (URL url : launcher.getLoadTimeDependencies()) {
+				try {
+					Path path = UrlUtil.asPath(url);
+					if (!Files.exists(path)) {
+						throw new RuntimeException("Path does not exist: " + path);
+					}
+
+					if (!path.equals(jarFile)) {
+						depPaths.add(path);
+					}
+				} catch (UrlConversionException e) {
+					throw new RuntimeException("Failed to convert '" + url + "' to path!", e);
+				}
+			}
+
+			if (!Boolean.parseBoolean(System.getProperty("fabric.loader.remapFullClassPath", "false"))) {
+				try {
+					int available = depPaths.size();
+					depPaths = RemapClassPathSelector.select(jarFile, depPaths);
+					LOGGER.debug("Using %d of %d class path entries to remap '%s'", depPaths.size(), available, jarFile.getFileName());
+				} catch (IOException | RuntimeException e) {
+					LOGGER.warn("Failed to narrow down the remapper class path, using all of it", e);
+				}
+			}
+
+			LongAdder classCount = new LongAdder();
+
+			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(deobfJarFileTmp)
+					// force jar despite the .tmp extension
+					.assumeArchive(true)
+					.build()) {
+				for (Path path : depPaths) {
+					LOGGER.debug("Appending '" + path + "' to remapper classpath");
+					remapper.readClassPath(path);
+				}
+				remapper.readInputs(jarFile);
+				// classes are written out as the remapper threads finish them
+				remapper.apply((clsName, data) -> {
+					// don't accept class names from a blacklist of dependencies that Fabric itself utilizes
+					// TODO: really could use a better solution, as always...
+					if (!clsName.startsWith("com/google/common/")
+							&& !clsName.startsWith("com/google/gson/")
+							&& !clsName.startsWith("com/google/thirdparty/")
+							&& !clsName.startsWith("org/apache/logging/log4j/")) {
+						outputConsumer.accept(clsName, data);
+						classCount.increment();
+					}
+				});
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to remap '" + jarFile + "'!", e);
+			} finally {
+				remapper.finish();
+			}
+
+			// Minecraft doesn't tend to check if a ZipFileSystem is already present,
+			// so we clean up here.
+
+			depPaths.add(deobfJarFileTmp);
+			for (Path p : depPaths) {
+				try {
+					p.getFileSystem().close();
+				} catch (Exception e) {
+					// pass
+				}
+
+				try {
+					FileSystems.getFileSystem(new URI("jar:" + p.toUri())).close();
+				} catch (Exception e) {
+					// pass
+				}
+			}
+
+			if (classCount.sum() > 0) {
+				LOGGER.debug("Remapped %d classes with %d threads in %d ms", classCount.sum(), threads, System.currentTimeMillis() - time);
+				Files.move(deobfJarFileTmp, deobfJarFile, StandardCopyOption.ATOMIC_MOVE);
+				return;
+			}
+
+			Files.deleteIfExists(deobfJarFileTmp);
+
+			if (attempt >= MAX_REMAP_ATTEMPTS) {
+				throw new RuntimeException("Generated deobfuscated JAR for '" + jarFile + "' contains no classes after " + attempt + " attempts!");
+			}
+
+			LOGGER.error("Generated deobfuscated JAR contains no classes! Trying again...");
+		}
+	}
+
 	public static void processArgumentMap(Arguments argMap, EnvType envType) {
 		switch (envType) {
 			case CLIENT:
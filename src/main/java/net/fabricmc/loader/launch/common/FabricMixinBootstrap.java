@@ -20,8 +20,8 @@ import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
 import net.fabricmc.loader.metadata.LoaderModMetadata;
+import net.fabricmc.loader.util.mappings.CompiledMappings;
 import net.fabricmc.loader.util.mappings.MixinIntermediaryDevRemapper;
-import net.fabricmc.mappings.Mappings;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.spongepowered.asm.launch.MixinBootstrap;
@@ -59,7 +59,7 @@ public final class FabricMixinBootstrap {
 
 		if (FabricLauncherBase.getLauncher().isDevelopment()) {
 			MappingConfiguration mappingConfiguration = FabricLauncherBase.getLauncher().getMappingConfiguration();
-			Mappings mappings = mappingConfiguration.getMappings();
+			CompiledMappings mappings = mappingConfiguration.getCompiledMappings();
 
 			if (mappings != null && mappings.getNamespaces().contains("intermediary") && mappings.getNamespaces().contains(mappingConfiguration.getTargetNamespace())) {
 				System.setProperty("mixin.env.remapRefMap", "true");
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.common;
+
+import net.fabricmc.loader.util.UrlConversionException;
+import net.fabricmc.loader.util.UrlUtil;
+import net.fabricmc.loader.util.mappings.CompiledMappings;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.MethodRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Remaps classes of an obfuscated game JAR one at a time, as they are requested, instead of remapping the whole JAR
+ * up front. Enabled in Knot with {@code -Dfabric.loader.lazyRemap=true}, meant for short-lived processes.
+ *
+ * <p>Names are looked up in the compiled mappings as they are needed, and member mappings are resolved through the
+ * class hierarchy, which is read from the JAR and memoized as classes are visited, following the same rules as the
+ * remapper used for the whole JAR. Remapped classes are stored in a directory of the remapped JAR cache, so later
+ * launches only remap classes they haven't needed before.</p>
+ */
+public final class LazyGameRemapper {
+	// classes bundled with the game that Fabric itself utilizes, see FabricLauncherBase.remap
+	private static final String[] EXCLUDED_PREFIXES = { "com/google/common/", "com/google/gson/", "com/google/thirdparty/", "org/apache/logging/log4j/" };
+
+	private final JarFile jarFile;
+	private final String jarUrl;
+	private final Path classCacheDir;
+	private final CompiledMappings mappings;
+	private final int from;
+	private final int to;
+	private final Map<String, ClassData> classData = new ConcurrentHashMap<>();
+	private final Remapper remapper = new HierarchyRemapper();
+
+	LazyGameRemapper(CompiledMappings mappings, String from, String to, Path jar, Path classCacheDir) throws IOException {
+		this.mappings = mappings;
+		this.from = mappings.getNamespaceId(from);
+		this.to = mappings.getNamespaceId(to);
+		this.jarFile = new JarFile(jar.toFile());
+		this.classCacheDir = classCacheDir;
+
+		try {
+			this.jarUrl = UrlUtil.asUrl(jar).toString();
+		} catch (UrlConversionException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @return The obfuscated name of the class in the JAR, or null if the JAR doesn't provide it.
+	 */
+	private String getOfficialName(String name) {
+		String internalName = name.replace('.', '/');
+		CompiledMappings.Table classes = mappings.getClasses();
+		int row = classes.find(to, internalName);
+		String officialName;
+
+		if (row >= 0) {
+			officialName = classes.getName(from, row);
+		} else if (classes.find(from, internalName) >= 0) {
+			// unmapped classes keep their name, but obfuscated names of mapped classes aren't valid
+			return null;
+		} else {
+			officialName = internalName;
+		}
+
+		for (String prefix : EXCLUDED_PREFIXES) {
+			if (officialName.startsWith(prefix)) {
+				return null;
+			}
+		}
+
+		return jarFile.getJarEntry(officialName + ".class") != null ? officialName : null;
+	}
+
+	/**
+	 * @param name The binary name of the class in the target namespace.
+	 * @return The remapped class file, or null if the class isn't part of the game JAR.
+	 */
+	public byte[] getClassBytes(String name) throws IOException {
+		String officialName = getOfficialName(name);
+		if (officialName == null) {
+			return null;
+		}
+
+		Path cacheFile = classCacheDir.resolve(name.replace('.', '/') + ".class");
+
+		if (Files.isRegularFile(cacheFile)) {
+			return Files.readAllBytes(cacheFile);
+		}
+
+		byte[] input;
+
+		try (InputStream stream = jarFile.getInputStream(jarFile.getJarEntry(officialName + ".class"))) {
+			input = readFully(stream);
+		}
+
+		ClassReader reader = new ClassReader(input);
+		ClassWriter writer = new ClassWriter(0);
+		reader.accept(new LambdaAwareClassRemapper(writer, remapper), 0);
+		byte[] output = writer.toByteArray();
+
+		Files.createDirectories(cacheFile.getParent());
+		// unique, as other threads or processes sharing the cache may be writing the same class
+		Path tmpFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+		Files.write(tmpFile, output);
+		Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		return output;
+	}
+
+	/**
+	 * @return A URL of the class in the game JAR, to derive the code source from, or null if it isn't part of it.
+	 */
+	public URL getResourceUrl(String name) {
+		String officialName = getOfficialName(name);
+		if (officialName == null) {
+			return null;
+		}
+
+		try {
+			return new URL("jar:" + jarUrl + "!/" + officialName + ".class");
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private ClassData getClassData(String name) {
+		return classData.computeIfAbsent(name, (n) -> {
+			JarEntry entry = jarFile.getJarEntry(n + ".class");
+			if (entry == null) {
+				// library or JDK class, their members aren't mapped
+				return ClassData.ABSENT;
+			}
+
+			try (InputStream stream = jarFile.getInputStream(entry)) {
+				ClassData data = new ClassData();
+				new ClassReader(stream).accept(data, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+				return data;
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to read the hierarchy of " + n, e);
+			}
+		});
+	}
+
+	/**
+	 * Finds the class declaring a member referenced through owner, following the JVM's resolution order.
+	 * @return The declaring class, or null if the member isn't declared by a class of the JAR.
+	 */
+	private String resolveMethod(String owner, String id) {
+		for (String cls = owner; ; ) {
+			ClassData data = getClassData(cls);
+
+			if (data == ClassData.ABSENT) {
+				break;
+			} else if (data.methods.containsKey(id)) {
+				return cls;
+			} else if (data.superName == null) {
+				break;
+			}
+
+			cls = data.superName;
+		}
+
+		Deque<String> queue = new ArrayDeque<>();
+		Set<String> visited = new HashSet<>();
+		queue.add(owner);
+
+		while (!queue.isEmpty()) {
+			String cls = queue.poll();
+			ClassData data = getClassData(cls);
+
+			if (!visited.add(cls) || data == ClassData.ABSENT) {
+				continue;
+			} else if (data.isInterface && data.methods.containsKey(id)) {
+				return cls;
+			}
+
+			queue.addAll(Arrays.asList(data.interfaces));
+
+			if (data.superName != null) {
+				queue.add(data.superName);
+			}
+		}
+
+		return null;
+	}
+
+	private String resolveField(String owner, String id) {
+		ClassData data = getClassData(owner);
+
+		if (data == ClassData.ABSENT) {
+			return null;
+		} else if (data.fields.containsKey(id)) {
+			return owner;
+		}
+
+		for (String itf : data.interfaces) {
+			String cls = resolveField(itf, id);
+
+			if (cls != null) {
+				return cls;
+			}
+		}
+
+		return data.superName != null ? resolveField(data.superName, id) : null;
+	}
+
+	/**
+	 * Maps a member the way the remapper does for the whole JAR: the member is resolved to its declaration, which
+	 * takes the mapping of its own class if there is one. Only methods that can be overridden inherit the name of a
+	 * method they override; private and static members, fields, and package-private methods of other packages don't.
+	 */
+	private String findMember(boolean isMethod, String owner, String name, String desc) {
+		CompiledMappings.Table members = isMethod ? mappings.getMethods() : mappings.getFields();
+		String id = name + desc;
+		String declaring = isMethod ? resolveMethod(owner, id) : resolveField(owner, id);
+
+		if (declaring == null) {
+			return null;
+		}
+
+		int row = members.find(from, declaring, name, desc);
+		if (row >= 0) {
+			return members.getName(to, row);
+		}
+
+		if (!isMethod || !isOverridable(getClassData(declaring).methods.get(id))) {
+			return null;
+		}
+
+		Deque<String> queue = new ArrayDeque<>(getClassData(declaring).getSupertypes());
+		Set<String> visited = new HashSet<>();
+
+		while (!queue.isEmpty()) {
+			String cls = queue.poll();
+			ClassData data = getClassData(cls);
+
+			if (!visited.add(cls) || data == ClassData.ABSENT) {
+				continue;
+			}
+
+			Integer access = data.methods.get(id);
+
+			if (access != null && isOverridable(access)
+				&& ((access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0 || getPackage(cls).equals(getPackage(declaring)))) {
+				row = members.find(from, cls, name, desc);
+
+				if (row >= 0) {
+					return members.getName(to, row);
+				}
+			}
+
+			queue.addAll(data.getSupertypes());
+		}
+
+		return null;
+	}
+
+	private static boolean isOverridable(int access) {
+		return (access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC)) == 0;
+	}
+
+	private static String getPackage(String name) {
+		int pkgEnd = name.lastIndexOf('/');
+		return pkgEnd >= 0 ? name.substring(0, pkgEnd) : "";
+	}
+
+	private static byte[] readFully(InputStream stream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(stream.available(), 8192));
+		byte[] buffer = new byte[8192];
+		int len;
+
+		while ((len = stream.read(buffer)) > 0) {
+			outputStream.write(buffer, 0, len);
+		}
+
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * The super types and member access flags of a class of the JAR.
+	 */
+	private static final class ClassData extends ClassVisitor {
+		static final ClassData ABSENT = new ClassData();
+
+		boolean isInterface;
+		String superName;
+		String[] interfaces = new String[0];
+		final Map<String, Integer> fields = new HashMap<>();
+		final Map<String, Integer> methods = new HashMap<>();
+
+		ClassData() {
+			super(Opcodes.ASM7);
+		}
+
+		List<String> getSupertypes() {
+			List<String> supertypes = new ArrayList<>(interfaces.length + 1);
+
+			if (superName != null) {
+				supertypes.add(superName);
+			}
+
+			supertypes.addAll(Arrays.asList(interfaces));
+			return supertypes;
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+			this.superName = superName;
+			this.interfaces = interfaces != null ? interfaces : new String[0];
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+			fields.put(name + descriptor, access);
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+			methods.put(name + descriptor, access);
+			return null;
+		}
+	}
+
+	private final class HierarchyRemapper extends Remapper {
+		@Override
+		public String map(String internalName) {
+			int row = mappings.getClasses().find(from, internalName);
+			return row >= 0 ? mappings.getClasses().getName(to, row) : internalName;
+		}
+
+		@Override
+		public String mapFieldName(String owner, String name, String descriptor) {
+			String mapped = findMember(false, owner, name, descriptor);
+			return mapped != null ? mapped : name;
+		}
+
+		@Override
+		public String mapMethodName(String owner, String name, String descriptor) {
+			if (name.startsWith("<")) {
+				return name;
+			}
+
+			String mapped = findMember(true, owner, name, descriptor);
+			return mapped != null ? mapped : name;
+		}
+	}
+
+	/**
+	 * Remaps the interface method names of lambdas, which {@link Remapper#mapInvokeDynamicMethodName} can't resolve
+	 * without the bootstrap arguments.
+	 */
+	private static final class LambdaAwareClassRemapper extends ClassRemapper {
+		LambdaAwareClassRemapper(ClassVisitor classVisitor, Remapper remapper) {
+			super(Opcodes.ASM7, classVisitor, remapper);
+		}
+
+		@Override
+		protected MethodVisitor createMethodRemapper(MethodVisitor methodVisitor) {
+			return new MethodRemapper(Opcodes.ASM7, methodVisitor, remapper) {
+				@Override
+				public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+					if ("java/lang/invoke/LambdaMetafactory".equals(bootstrapMethodHandle.getOwner())
+						&& bootstrapMethodArguments.length > 0 && bootstrapMethodArguments[0] instanceof Type) {
+						String owner = Type.getReturnType(descriptor).getInternalName();
+						name = remapper.mapMethodName(owner, name, ((Type) bootstrapMethodArguments[0]).getDescriptor());
+					}
+
+					super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+				}
+			};
+		}
+	}
+}
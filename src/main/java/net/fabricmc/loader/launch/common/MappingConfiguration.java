@@ -16,23 +16,107 @@
 
 package net.fabricmc.loader.launch.common;
 
+import net.fabricmc.loader.util.mappings.CompiledMappings;
 import net.fabricmc.mappings.Mappings;
 import net.fabricmc.mappings.MappingsProvider;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class MappingConfiguration {
 	protected static Logger LOGGER = LogManager.getFormatterLogger("FabricLoader");
 
+	private static final String MAPPINGS_RESOURCE = "mappings/mappings.tiny";
+
 	private static Mappings mappings;
 	private static boolean checkedMappings;
+	private static List<String> namespaces;
+	private static CompiledMappings compiledMappings;
+	private static Path cacheDirectory;
+
+	/**
+	 * Sets the directory to keep the compiled mappings in between launches, see {@link #getCompiledMappings()}.
+	 */
+	public void setCacheDirectory(Path directory) {
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Gets the mappings compiled into a table that is queried in place, without loading every entry onto the heap.
+	 * The table is kept in the cache directory and reused as long as the mappings file is unchanged.
+	 */
+	public CompiledMappings getCompiledMappings() {
+		if (compiledMappings == null) {
+			String stamp = getMappingsStamp();
+			Path cacheFile = cacheDirectory != null && stamp != null ? cacheDirectory.resolve("mappings").resolve("mappings.bin") : null;
+
+			if (cacheFile != null && Files.isRegularFile(cacheFile)) {
+				try {
+					CompiledMappings cached = CompiledMappings.open(cacheFile);
+
+					if (stamp.equals(cached.getStamp())) {
+						compiledMappings = cached;
+						return compiledMappings;
+					}
+				} catch (IOException | RuntimeException e) {
+					LOGGER.warn("Failed to read compiled mappings " + cacheFile + ", compiling them again", e);
+
+					try {
+						Files.deleteIfExists(cacheFile);
+					} catch (IOException ee) {
+						// still mapped by another instance on Windows, replaced below
+					}
+				}
+			}
+
+			try {
+				long time = System.currentTimeMillis();
+				InputStream mappingStream = FabricLauncherBase.class.getClassLoader().getResourceAsStream(MAPPINGS_RESOURCE);
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+				try (BufferedReader reader = new BufferedReader(mappingStream != null ? new InputStreamReader(mappingStream, StandardCharsets.UTF_8) : new StringReader("v1"))) {
+					CompiledMappings.compile(reader, stamp, output);
+				}
+
+				byte[] data = output.toByteArray();
+				compiledMappings = CompiledMappings.read(data);
+				LOGGER.debug("Compiling mappings took " + (System.currentTimeMillis() - time) + " ms");
+
+				if (cacheFile != null) {
+					try {
+						Files.createDirectories(cacheFile.getParent());
+						Path tmpFile = Files.createTempFile(cacheFile.getParent(), "mappings", ".tmp");
+						Files.write(tmpFile, data);
+						Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} catch (IOException e) {
+						// may be mapped by another instance on Windows, compiled again next time
+						LOGGER.debug("Failed to store compiled mappings " + cacheFile, e);
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to compile mappings", e);
+			}
+		}
+
+		return compiledMappings;
+	}
 
 	public Mappings getMappings() {
 		if (!checkedMappings) {
-			InputStream mappingStream = FabricLauncherBase.class.getClassLoader().getResourceAsStream("mappings/mappings.tiny");
+			InputStream mappingStream = FabricLauncherBase.class.getClassLoader().getResourceAsStream(MAPPINGS_RESOURCE);
 
 			if (mappingStream != null) {
 				try {
@@ -60,6 +144,81 @@ public class MappingConfiguration {
 		return mappings;
 	}
 
+	/**
+	 * Reads the namespaces from the header of the mappings file, without loading the mappings themselves.
+	 */
+	public List<String> getNamespaces() {
+		if (namespaces == null) {
+			if (checkedMappings) {
+				namespaces = new ArrayList<>(getMappings().getNamespaces());
+			} else {
+				URL url = FabricLauncherBase.class.getClassLoader().getResource(MAPPINGS_RESOURCE);
+				String header = null;
+
+				if (url != null) {
+					try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+						header = reader.readLine();
+					} catch (IOException e) {
+						LOGGER.debug("Failed to read mappings header", e);
+					}
+				}
+
+				if (url == null) {
+					namespaces = Collections.emptyList();
+				} else if (header != null && header.startsWith("v1\t")) {
+					namespaces = Arrays.asList(header.substring(3).split("\t"));
+				} else {
+					namespaces = new ArrayList<>(getMappings().getNamespaces());
+				}
+			}
+		}
+
+		return namespaces;
+	}
+
+	/**
+	 * Identifies the mappings file by its location, size and modification time, without reading it.
+	 * @return The stamp, or null if there is no mappings file.
+	 */
+	public String getMappingsStamp() {
+		URL url = FabricLauncherBase.class.getClassLoader().getResource(MAPPINGS_RESOURCE);
+		if (url == null) {
+			return null;
+		}
+
+		try {
+			URLConnection connection = url.openConnection();
+			connection.setUseCaches(true);
+			return url + "|" + connection.getContentLengthLong() + "|" + connection.getLastModified();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return A SHA-256 hash of the contents of the mappings file, or null if there is none.
+	 */
+	public byte[] getMappingsHash() throws IOException {
+		InputStream stream = FabricLauncherBase.class.getClassLoader().getResourceAsStream(MAPPINGS_RESOURCE);
+		if (stream == null) {
+			return null;
+		}
+
+		try (InputStream mappingStream = stream) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[8192];
+			int len;
+
+			while ((len = mappingStream.read(buffer)) > 0) {
+				digest.update(buffer, 0, len);
+			}
+
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public String getTargetNamespace() {
 		return FabricLauncherBase.getLauncher().isDevelopment() ? "named" : "intermediary";
 	}
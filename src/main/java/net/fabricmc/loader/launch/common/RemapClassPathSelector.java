@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.common;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Picks the class path entries the remapper needs to resolve the hierarchy of the input JAR.
+ *
+ * <p>Every class the input JAR references through its constant pool is looked up on the class path, followed by
+ * the super types of the classes found there, transitively. Only the entries providing one of these classes are
+ * passed to the remapper; the rest of the class path can't affect how the input is remapped.</p>
+ */
+final class RemapClassPathSelector implements Closeable {
+	private static final int CONSTANT_CLASS = 7;
+
+	private final Map<String, Path> providers = new HashMap<>();
+	private final Map<Path, JarFile> openJars = new HashMap<>();
+
+	private RemapClassPathSelector() {
+
+	}
+
+	static Set<Path> select(Path inputJar, Collection<Path> classPath) throws IOException {
+		try (RemapClassPathSelector selector = new RemapClassPathSelector()) {
+			for (Path path : classPath) {
+				selector.index(path);
+			}
+
+			Set<String> inputClasses = new HashSet<>();
+			Set<String> referenced = new HashSet<>();
+
+			try (JarFile jarFile = new JarFile(inputJar.toFile())) {
+				Enumeration<JarEntry> entries = jarFile.entries();
+
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+
+					if (entry.getName().endsWith(".class")) {
+						inputClasses.add(entry.getName().substring(0, entry.getName().length() - 6));
+
+						try (InputStream stream = jarFile.getInputStream(entry)) {
+							collectClassReferences(new ClassReader(stream), referenced);
+						}
+					}
+				}
+			}
+
+			referenced.removeAll(inputClasses);
+			return selector.resolve(referenced);
+		}
+	}
+
+	private void index(Path path) throws IOException {
+		if (Files.isDirectory(path)) {
+			try (Stream<Path> stream = Files.walk(path)) {
+				stream.map((p) -> path.relativize(p).toString().replace(path.getFileSystem().getSeparator(), "/"))
+					.filter((name) -> name.endsWith(".class"))
+					.forEach((name) -> providers.putIfAbsent(name.substring(0, name.length() - 6), path));
+			}
+		} else {
+			JarFile jarFile = new JarFile(path.toFile());
+			openJars.put(path, jarFile);
+			Enumeration<JarEntry> entries = jarFile.entries();
+
+			while (entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+
+				if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+					providers.putIfAbsent(name.substring(0, name.length() - 6), path);
+				}
+			}
+		}
+	}
+
+	private Set<Path> resolve(Set<String> referenced) throws IOException {
+		Set<Path> selected = new LinkedHashSet<>();
+		Set<String> visited = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>(referenced);
+
+		while (!queue.isEmpty()) {
+			String name = queue.poll();
+
+			if (!visited.add(name)) {
+				continue;
+			}
+
+			Path provider = providers.get(name);
+
+			if (provider == null) {
+				// JDK class, or not on the class path at all
+				continue;
+			}
+
+			selected.add(provider);
+
+			try (InputStream stream = openClass(provider, name)) {
+				ClassReader reader = new ClassReader(stream);
+
+				if (reader.getSuperName() != null) {
+					queue.add(reader.getSuperName());
+				}
+
+				queue.addAll(Arrays.asList(reader.getInterfaces()));
+			}
+		}
+
+		return selected;
+	}
+
+	private InputStream openClass(Path provider, String name) throws IOException {
+		JarFile jarFile = openJars.get(provider);
+
+		if (jarFile != null) {
+			return jarFile.getInputStream(jarFile.getJarEntry(name + ".class"));
+		} else {
+			return Files.newInputStream(provider.resolve(name + ".class"));
+		}
+	}
+
+	private static void collectClassReferences(ClassReader reader, Set<String> out) {
+		char[] buffer = new char[reader.getMaxStringLength()];
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+
+			// offset points past the tag byte; long and double constants leave the following index unused
+			if (offset > 0 && reader.readByte(offset - 1) == CONSTANT_CLASS) {
+				String name = reader.readUTF8(offset, buffer);
+				int elementStart = name.lastIndexOf('[') + 1;
+
+				if (elementStart == 0) {
+					out.add(name);
+				} else if (name.charAt(elementStart) == 'L') {
+					out.add(name.substring(elementStart + 1, name.length() - 1));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (JarFile jarFile : openJars.values()) {
+			jarFile.close();
+		}
+	}
+}
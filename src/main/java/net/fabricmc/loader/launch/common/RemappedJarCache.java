@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Remapped JARs of one input JAR, named after a hash of the input JAR's contents, the mappings and the target
+ * namespace, so changing any of them produces a new entry instead of reusing a stale one.
+ *
+ * <p>A manifest next to the entries remembers the size and modification time of the inputs each entry was made
+ * from. As long as those match, the entry is used without hashing the input JAR or loading the mappings. Older
+ * entries are kept for switching back and forth, up to {@link #MAX_ENTRIES}, least recently used first out.</p>
+ *
+ * <p>The directory may be shared by several processes, see {@link #lock()}. Entries are only ever created under
+ * the lock and appear through an atomic rename, so readers outside of the lock never see a partial entry.</p>
+ *
+ * <p>Processes using an entry hold a shared lock on a lease file next to it until they exit, and eviction skips
+ * entries it can't lock exclusively, so JARs on another process' class path and class directories still being
+ * written to are left alone.</p>
+ */
+final class RemappedJarCache {
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|RemappedJarCache");
+	private static final int FORMAT_VERSION = 2;
+	private static final int MAX_ENTRIES = 3;
+	// held until the process exits; the channels must stay reachable, closing them releases the leases
+	private static final Map<Path, FileChannel> leases = new HashMap<>();
+
+	private final Path directory;
+	private final String baseName;
+	private final String suffix;
+	private final Path manifestFile;
+	private final Path lockFile;
+	private final Pattern entryPattern;
+
+	/**
+	 * @param baseName The name of the remapped JAR without extension, e.g. {@code intermediary-minecraft}.
+	 */
+	RemappedJarCache(Path directory, String baseName) {
+		this(directory, baseName, ".jar");
+	}
+
+	/**
+	 * @param suffix Appended to the entry names, empty for entries that are directories.
+	 */
+	RemappedJarCache(Path directory, String baseName, String suffix) {
+		this.directory = directory;
+		this.baseName = baseName;
+		this.suffix = suffix;
+		this.manifestFile = directory.resolve(baseName + ".properties");
+		this.lockFile = directory.resolve(baseName + ".lock");
+		this.entryPattern = Pattern.compile(Pattern.quote(baseName) + "-[0-9a-f]{16}" + Pattern.quote(suffix));
+	}
+
+	/**
+	 * Locks the cache against other processes, waiting for the lock if another process holds it. Closing the result
+	 * releases the lock.
+	 */
+	Closeable lock() throws IOException {
+		FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+		try {
+			FileLock lock = channel.tryLock();
+
+			if (lock == null) {
+				LOGGER.info("Waiting for another process to finish preparing %s...", baseName);
+				channel.lock();
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		// closing the channel releases the lock
+		return channel;
+	}
+
+	/**
+	 * Looks up the entry made from inputs with the same stamps, and leases it to this process.
+	 * @return The entry, or null if the key has to be computed.
+	 */
+	Path findCurrent(Path inputJar, String mappingsStamp) {
+		Properties manifest = readManifest();
+		String key;
+
+		try {
+			key = manifest.getProperty(getStamp(inputJar) + "|" + mappingsStamp);
+		} catch (IOException e) {
+			return null;
+		}
+
+		if (key == null) {
+			return null;
+		}
+
+		Path entry = getEntry(key);
+
+		try {
+			// the entry may have been evicted between reading the manifest and taking the lease
+			return Files.exists(entry) && lease(entry) && Files.exists(entry) ? entry : null;
+		} catch (IOException e) {
+			LOGGER.debug("Failed to lease remapped JAR " + entry, e);
+			return null;
+		}
+	}
+
+	static String computeKey(Path inputJar, byte[] mappingsHash, String targetNamespace) throws IOException {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		try (InputStream stream = Files.newInputStream(inputJar)) {
+			byte[] buffer = new byte[65536];
+			int len;
+
+			while ((len = stream.read(buffer)) > 0) {
+				digest.update(buffer, 0, len);
+			}
+		}
+
+		if (mappingsHash != null) {
+			digest.update(mappingsHash);
+		}
+
+		digest.update(targetNamespace.getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder builder = new StringBuilder();
+		byte[] hash = digest.digest();
+
+		for (int i = 0; i < 8; i++) {
+			builder.append(String.format("%02x", hash[i] & 0xFF));
+		}
+
+		return builder.toString();
+	}
+
+	Path getEntry(String key) {
+		return directory.resolve(baseName + "-" + key + suffix);
+	}
+
+	Path getTemporaryEntry(String key) {
+		return directory.resolve(baseName + "-" + key + suffix + ".tmp");
+	}
+
+	/**
+	 * Makes the entry the current one for the given inputs, leases it to this process and evicts the least recently
+	 * used other entries. Must be called while holding the {@link #lock()}.
+	 */
+	void commit(String key, Path inputJar, String mappingsStamp) throws IOException {
+		Path entry = getEntry(key);
+		Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+
+		// only eviction locks leases exclusively, and it runs under the cache lock we're holding
+		if (!lease(entry)) {
+			throw new IOException("Failed to lease remapped JAR " + entry);
+		}
+
+		evict(entry);
+
+		Properties manifest = readManifest();
+		manifest.setProperty("format", Integer.toString(FORMAT_VERSION));
+		manifest.setProperty(getStamp(inputJar) + "|" + mappingsStamp, key);
+		// forget inputs whose entry has been evicted
+		for (String name : manifest.stringPropertyNames()) {
+			if (!name.equals("format") && !Files.exists(getEntry(manifest.getProperty(name)))) {
+				manifest.remove(name);
+			}
+		}
+
+		Path tmpFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+
+		try (OutputStream stream = Files.newOutputStream(tmpFile)) {
+			manifest.store(stream, "Fabric remapped JAR cache");
+		}
+
+		Files.move(tmpFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Properties readManifest() {
+		Properties manifest = new Properties();
+
+		if (Files.isRegularFile(manifestFile)) {
+			try (InputStream stream = Files.newInputStream(manifestFile)) {
+				manifest.load(stream);
+			} catch (IOException e) {
+				LOGGER.debug("Failed to read remapped JAR manifest " + manifestFile, e);
+				manifest.clear();
+			}
+
+			if (!Integer.toString(FORMAT_VERSION).equals(manifest.getProperty("format"))) {
+				manifest.clear();
+			}
+		}
+
+		return manifest;
+	}
+
+	private void evict(Path current) throws IOException {
+		List<Path> entries = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path path : stream) {
+				if (entryPattern.matcher(path.getFileName().toString()).matches() && !path.equals(current)) {
+					entries.add(path);
+				}
+			}
+		}
+
+		if (entries.size() < MAX_ENTRIES) {
+			return;
+		}
+
+		entries.sort(Comparator.comparing(RemappedJarCache::getLastModifiedTime).reversed());
+
+		for (Path path : entries.subList(MAX_ENTRIES - 1, entries.size())) {
+			Path leaseFile = getLeaseFile(path);
+
+			try (FileChannel channel = FileChannel.open(leaseFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				FileLock lock;
+
+				try {
+					lock = channel.tryLock();
+				} catch (OverlappingFileLockException e) {
+					// leased by this process
+					lock = null;
+				}
+
+				if (lock == null) {
+					LOGGER.debug("Not evicting remapped JAR " + path + ", it is in use");
+					continue;
+				}
+
+				LOGGER.debug("Evicting remapped JAR " + path);
+
+				if (Files.isDirectory(path)) {
+					try (Stream<Path> stream = Files.walk(path)) {
+						for (Path file : (Iterable<Path>) stream.sorted(Comparator.reverseOrder())::iterator) {
+							Files.delete(file);
+						}
+					}
+				} else {
+					Files.deleteIfExists(path);
+				}
+
+				Files.deleteIfExists(leaseFile);
+			} catch (IOException e) {
+				// may be in use by another instance on Windows, try again next time
+				LOGGER.debug("Failed to evict remapped JAR " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * Takes a shared lock on the lease file of an entry, held until this process exits.
+	 * @return False if the entry is being evicted.
+	 */
+	private static boolean lease(Path entry) throws IOException {
+		synchronized (leases) {
+			if (leases.containsKey(entry)) {
+				return true;
+			}
+
+			FileChannel channel = FileChannel.open(getLeaseFile(entry), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			FileLock lock;
+
+			try {
+				lock = channel.tryLock(0, Long.MAX_VALUE, true);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+
+			if (lock == null) {
+				channel.close();
+				return false;
+			}
+
+			leases.put(entry, channel);
+			return true;
+		}
+	}
+
+	private static Path getLeaseFile(Path entry) {
+		return entry.resolveSibling(entry.getFileName() + ".lease");
+	}
+
+	private static FileTime getLastModifiedTime(Path path) {
+		try {
+			return Files.getLastModifiedTime(path);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static String getStamp(Path path) throws IOException {
+		return path.toAbsolutePath() + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis();
+	}
+}
@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -94,6 +95,7 @@ public final class Knot extends FabricLauncherBase {
 		}
 
 		provider.acceptArguments(args);
+		getMappingConfiguration().setCacheDirectory(provider.getLaunchDirectory().resolve(".fabric"));
 
 		isDevelopment = Boolean.parseBoolean(System.getProperty("fabric.development", "false"));
 
@@ -102,7 +104,19 @@ public final class Knot extends FabricLauncherBase {
 		boolean useCompatibility = provider.requiresUrlClassLoader() || Boolean.parseBoolean(System.getProperty("fabric.loader.useCompatibilityClassLoader", "false"));
 		loader = useCompatibility ? new KnotCompatibilityClassLoader(isDevelopment(), envType, provider) : new KnotClassLoader(isDevelopment(), envType, provider);
 
-		if(provider.isObfuscated()) {
+		// baking lists classes by file name, and ModLoader and FML read classes from the game JAR, so both need the
+		// remapped JAR on disk
+		boolean lazyRemap = Boolean.parseBoolean(System.getProperty("fabric.loader.lazyRemap", "false"))
+			&& System.getProperty("fabric.loader.bake") == null && !provider.requiresUrlClassLoader();
+
+		if (provider.isObfuscated() && lazyRemap && provider.getGameContextJars().size() == 1) {
+			loader.getDelegate().setLazyRemapper(FabricLauncherBase.createLazyRemapper(
+				provider.getGameId(), provider.getNormalizedGameVersion(),
+				provider.getLaunchDirectory(),
+				provider.getGameContextJars().get(0),
+				this
+			));
+		} else if(provider.isObfuscated()) {
 			for (Path path : provider.getGameContextJars()) {
 				FabricLauncherBase.deobfuscate(
 					provider.getGameId(), provider.getNormalizedGameVersion(),
@@ -114,7 +128,7 @@ public final class Knot extends FabricLauncherBase {
 		}
 
 		// Locate entrypoints before switching class loaders
-		provider.getEntrypointTransformer().locateEntrypoints(this);
+		provider.getEntrypointTransformer().locateEntrypoints(this, provider.getLaunchDirectory().resolve(".fabric").resolve("entrypointPatches-" + envType.name().toLowerCase(Locale.ROOT) + ".bin"));
 
 		Thread.currentThread().setContextClassLoader((ClassLoader) loader);
 
@@ -128,6 +142,21 @@ public final class Knot extends FabricLauncherBase {
 
 		loader.getDelegate().initializeTransformers();
 
+		String bakeOutput = System.getProperty("fabric.loader.bake");
+		String bakedJar = System.getProperty("fabric.loader.baked");
+
+		if (bakeOutput != null) {
+			try {
+				KnotBaker.bake(loader, Paths.get(bakeOutput), KnotBaker.computeFingerprint(provider, envType, isDevelopment));
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to bake classes into " + bakeOutput, e);
+			}
+
+			return;
+		} else if (bakedJar != null) {
+			loader.getDelegate().useBakedClasses(Paths.get(bakedJar), KnotBaker.computeFingerprint(provider, envType, isDevelopment));
+		}
+
 		provider.launch((ClassLoader) loader);
 	}
 
@@ -195,7 +224,7 @@ public final class Knot extends FabricLauncherBase {
 
 	@Override
 	public byte[] getClassByteArray(String name) throws IOException {
-		return loader.getDelegate().getClassByteArray(name, false);
+		return loader.getDelegate().getCachedClassByteArray(name);
 	}
 
 	@Override
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.FabricLoader;
+import net.fabricmc.loader.ModContainer;
+import net.fabricmc.loader.game.GameProvider;
+import net.fabricmc.loader.util.UrlConversionException;
+import net.fabricmc.loader.util.UrlUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.spongepowered.asm.mixin.Mixins;
+import org.spongepowered.asm.mixin.transformer.Config;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Writes every class on the Knot class path, fully transformed (including Mixin), into a single JAR.
+ *
+ * <p>Run Knot with {@code -Dfabric.loader.bake=<output jar>} to bake instead of launching the game; classes are only
+ * transformed, never defined or initialized. Launching with {@code -Dfabric.loader.baked=<jar>} then serves classes
+ * straight from the baked JAR, as long as its fingerprint still matches the game and mod set.</p>
+ *
+ * <p>Mixin is still bootstrapped in a baked launch, and classes missing from the baked JAR go through the regular
+ * transformer and Mixin path. Baked classes don't, so classes Mixin generates while transforming them are baked as
+ * well; see {@link #bake}.</p>
+ */
+final class KnotBaker {
+	static final String FINGERPRINT_ATTRIBUTE = "Fabric-Bake-Fingerprint";
+	private static final int CONSTANT_CLASS_TAG = 7;
+
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|KnotBaker");
+
+	private KnotBaker() {
+
+	}
+
+	/**
+	 * Identifies the inputs of a bake: environment, game JARs and the loaded mods, including their files.
+	 */
+	static String computeFingerprint(GameProvider provider, EnvType envType, boolean isDevelopment) {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		update(digest, envType.name());
+		update(digest, Boolean.toString(isDevelopment));
+		update(digest, provider.getGameId());
+		update(digest, provider.getRawGameVersion());
+
+		for (Path path : provider.getGameContextJars()) {
+			updateFile(digest, path);
+		}
+
+		List<ModContainer> mods = new ArrayList<>(FabricLoader.INSTANCE.getModContainers());
+		mods.sort(Comparator.comparing((ModContainer mod) -> mod.getInfo().getId()));
+
+		for (ModContainer mod : mods) {
+			update(digest, mod.getInfo().getId());
+			update(digest, mod.getInfo().getVersion().getFriendlyString());
+
+			try {
+				updateFile(digest, UrlUtil.asPath(mod.getOriginUrl()));
+			} catch (UrlConversionException e) {
+				update(digest, mod.getOriginUrl().toString());
+			}
+		}
+
+		StringBuilder builder = new StringBuilder();
+
+		for (byte b : digest.digest()) {
+			builder.append(String.format("%02x", b & 0xFF));
+		}
+
+		return builder.toString();
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		digest.update(s.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static void updateFile(MessageDigest digest, Path path) {
+		update(digest, path.toAbsolutePath().toString());
+
+		try {
+			if (Files.isRegularFile(path)) {
+				update(digest, Long.toString(Files.size(path)));
+				update(digest, Long.toString(Files.getLastModifiedTime(path).toMillis()));
+			}
+		} catch (IOException e) {
+			update(digest, e.toString());
+		}
+	}
+
+	static void bake(KnotClassLoaderInterface loader, Path output, String fingerprint) throws IOException {
+		long time = System.currentTimeMillis();
+		Set<String> classNames = new LinkedHashSet<>();
+
+		for (URL url : loader.getURLs()) {
+			try {
+				collectClassNames(UrlUtil.asPath(url), classNames);
+			} catch (UrlConversionException | IOException e) {
+				throw new IOException("Failed to list classes in " + url, e);
+			}
+		}
+
+		LOGGER.info("Baking %d classes into %s...", classNames.size(), output);
+
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue(FINGERPRINT_ATTRIBUTE, fingerprint);
+
+		Path parent = output.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path tmpOutput = parent.resolve(output.getFileName() + ".tmp");
+		KnotClassDelegate delegate = loader.getDelegate();
+		List<String> mixinPackages = getMixinPackages();
+		Set<String> referenced = new LinkedHashSet<>();
+		int baked = 0;
+		int generated = 0;
+		int skipped = 0;
+
+		try (JarOutputStream jarStream = new JarOutputStream(Files.newOutputStream(tmpOutput), manifest)) {
+			for (String name : classNames) {
+				// mirrors the exclusion in KnotClassLoader.loadClass
+				if (name.startsWith("com.google.gson.")) {
+					continue;
+				}
+
+				byte[] data = transform(delegate, name, mixinPackages);
+
+				if (data == null) {
+					skipped++;
+				} else {
+					write(jarStream, delegate.getClassFileName(name), data);
+					collectReferences(data, referenced);
+					baked++;
+				}
+			}
+
+			// Mixin generates classes while applying mixins to their targets, e.g. copies of inner classes of mixins
+			// and the Args subclasses of @ModifyArgs. In a baked launch the targets are served from the JAR without
+			// going through Mixin, so nothing would generate these; bake every one the baked classes refer to.
+			Set<String> seen = new HashSet<>(classNames);
+			Deque<String> queue = new ArrayDeque<>();
+
+			for (String name : referenced) {
+				if (seen.add(name)) {
+					queue.add(name);
+				}
+			}
+
+			while (!queue.isEmpty()) {
+				String name = queue.poll();
+
+				// JDK classes, and class files on the class path, which are either baked above or not defined by Knot
+				if (name.startsWith("java.") || delegate.getClassByteArray(name, true) != null) {
+					continue;
+				}
+
+				byte[] data = transform(delegate, name, mixinPackages);
+
+				if (data != null) {
+					write(jarStream, delegate.getClassFileName(name), data);
+					referenced.clear();
+					collectReferences(data, referenced);
+
+					for (String ref : referenced) {
+						if (seen.add(ref)) {
+							queue.add(ref);
+						}
+					}
+
+					generated++;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmpOutput);
+			throw e;
+		}
+
+		Files.move(tmpOutput, output, StandardCopyOption.REPLACE_EXISTING);
+		LOGGER.info("Baked %d classes and %d Mixin generated classes in %d ms, %d classes can't be loaded in this environment",
+			baked, generated, System.currentTimeMillis() - time, skipped);
+	}
+
+	/**
+	 * Runs a class through the same path as {@link KnotClassLoader#loadClass}.
+	 *
+	 * <p>Only classes that fail identically at runtime may be left out: classes stripped for this environment, and
+	 * mixins, which Mixin refuses to load directly. Anything else fails the bake, as a baked launch would otherwise
+	 * run with classes that were never transformed.</p>
+	 *
+	 * @return The transformed class, or null if it can't be loaded in this environment.
+	 */
+	private static byte[] transform(KnotClassDelegate delegate, String name, List<String> mixinPackages) throws IOException {
+		KnotClassLoadStats.Sample sample = KnotClassLoadStats.begin(name);
+
+		try {
+			return delegate.loadClassData(name, false, sample);
+		} catch (Throwable t) {
+			if (delegate.isStrippedClass(name) || isInMixinPackage(name, mixinPackages)) {
+				LOGGER.debug("Skipping class " + name + ": " + t);
+				return null;
+			}
+
+			throw new IOException("Failed to bake class " + name, t);
+		} finally {
+			KnotClassLoadStats.finish(sample);
+		}
+	}
+
+	private static void write(JarOutputStream jarStream, String fileName, byte[] data) throws IOException {
+		jarStream.putNextEntry(new JarEntry(fileName));
+		jarStream.write(data);
+		jarStream.closeEntry();
+	}
+
+	private static List<String> getMixinPackages() {
+		List<String> packages = new ArrayList<>();
+
+		for (Config config : Mixins.getConfigs()) {
+			String pkg = config.getConfig().getMixinPackage();
+
+			if (pkg != null && !pkg.isEmpty()) {
+				packages.add(pkg.endsWith(".") ? pkg : pkg + ".");
+			}
+		}
+
+		return packages;
+	}
+
+	private static boolean isInMixinPackage(String name, List<String> mixinPackages) {
+		for (String pkg : mixinPackages) {
+			if (name.startsWith(pkg)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds the classes named by the class constants of a class file, which includes every class it instantiates.
+	 */
+	private static void collectReferences(byte[] data, Set<String> names) {
+		ClassReader reader = new ClassReader(data);
+		char[] buffer = new char[reader.getMaxStringLength()];
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+
+			// the second slot of long and double constants has no offset
+			if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS_TAG) {
+				continue;
+			}
+
+			Type type = Type.getObjectType(reader.readUTF8(offset, buffer));
+
+			if (type.getSort() == Type.ARRAY) {
+				type = type.getElementType();
+			}
+
+			if (type.getSort() == Type.OBJECT) {
+				names.add(type.getClassName());
+			}
+		}
+	}
+
+	private static void collectClassNames(Path root, Set<String> classNames) throws IOException {
+		if (Files.isDirectory(root)) {
+			try (Stream<Path> stream = Files.walk(root)) {
+				stream.map((p) -> root.relativize(p).toString().replace(root.getFileSystem().getSeparator(), "/"))
+					.forEach((name) -> addClassName(name, classNames));
+			}
+		} else if (root.getFileSystem() == FileSystems.getDefault()) {
+			try (JarFile jarFile = new JarFile(root.toFile())) {
+				Enumeration<JarEntry> entries = jarFile.entries();
+
+				while (entries.hasMoreElements()) {
+					addClassName(entries.nextElement().getName(), classNames);
+				}
+			}
+		} else {
+			// e.g. nested JARs kept in memory
+			try (ZipInputStream zipStream = new ZipInputStream(Files.newInputStream(root))) {
+				ZipEntry entry;
+
+				while ((entry = zipStream.getNextEntry()) != null) {
+					addClassName(entry.getName(), classNames);
+				}
+			}
+		}
+	}
+
+	private static void addClassName(String entryName, Set<String> classNames) {
+		if (entryName.endsWith(".class") && !entryName.startsWith("META-INF/")) {
+			classNames.add(entryName.substring(0, entryName.length() - 6).replace('/', '.'));
+		}
+	}
+}
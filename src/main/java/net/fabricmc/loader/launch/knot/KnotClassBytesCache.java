@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, softly referenced cache of raw class bytes read ahead of class definition,
+ * e.g. by Mixin or the entrypoint patches inspecting a class before it is loaded.
+ */
+final class KnotClassBytesCache {
+	private final Map<String, SoftReference<byte[]>> entries;
+
+	KnotClassBytesCache(int maxEntries) {
+		this.entries = new LinkedHashMap<String, SoftReference<byte[]>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SoftReference<byte[]>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	synchronized byte[] get(String name) {
+		SoftReference<byte[]> ref = entries.get(name);
+		if (ref == null) {
+			return null;
+		}
+
+		byte[] data = ref.get();
+		if (data == null) {
+			entries.remove(name);
+		}
+
+		return data;
+	}
+
+	synchronized void put(String name, byte[] data) {
+		entries.put(name, new SoftReference<>(data));
+	}
+
+	/**
+	 * Removes the entry for a class that's about to be defined, as nothing should ask for its bytes again.
+	 */
+	synchronized byte[] remove(String name) {
+		SoftReference<byte[]> ref = entries.remove(name);
+		return ref != null ? ref.get() : null;
+	}
+}
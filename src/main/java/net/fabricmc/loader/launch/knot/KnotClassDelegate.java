@@ -17,8 +17,11 @@
 package net.fabricmc.loader.launch.knot;
 
 import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.FabricLoader;
+import net.fabricmc.loader.ModContainer;
 import net.fabricmc.loader.game.GameProvider;
 import net.fabricmc.loader.launch.common.FabricLauncherBase;
+import net.fabricmc.loader.launch.common.LazyGameRemapper;
 import net.fabricmc.loader.transformer.FabricTransformer;
 import net.fabricmc.loader.util.FileSystemUtil;
 import net.fabricmc.loader.util.UrlConversionException;
@@ -35,31 +38,43 @@ import java.net.URLConnection;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.CodeSource;
 import java.security.cert.Certificate;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 class KnotClassDelegate {
 	static class Metadata {
-		static final Metadata EMPTY = new Metadata(null, null);
+		static final Metadata EMPTY = new Metadata(null, null, null);
 
 		final Manifest manifest;
 		final CodeSource codeSource;
+		final String modId;
 
-		Metadata(Manifest manifest, CodeSource codeSource) {
+		Metadata(Manifest manifest, CodeSource codeSource, String modId) {
 			this.manifest = manifest;
 			this.codeSource = codeSource;
+			this.modId = modId;
 		}
 	}
 
 	private final Map<String, Metadata> metadataCache = new HashMap<>();
+	private final KnotClassBytesCache classBytesCache = new KnotClassBytesCache(512);
 	private final KnotClassLoaderInterface itf;
 	private final GameProvider provider;
 	private final boolean isDevelopment;
 	private final EnvType envType;
 	private MixinTransformer mixinTransformer;
+	private KnotMixinTargets mixinTargets;
+	private KnotClassPrefetcher prefetcher;
+	private KnotClassList classList;
+	private JarFile bakedJar;
+	private LazyGameRemapper lazyRemapper;
 	private boolean transformInitialized = false;
 
 	KnotClassDelegate(boolean isDevelopment, EnvType envType, KnotClassLoaderInterface itf, GameProvider provider) {
@@ -82,15 +97,87 @@ class KnotClassDelegate {
 			throw new RuntimeException(e);
 		}
 
+		if (Boolean.parseBoolean(System.getProperty("fabric.loader.mixinTargetFilter", "true"))) {
+			mixinTargets = new KnotMixinTargets(mixinTransformer);
+		}
+
+		if (Boolean.parseBoolean(System.getProperty("fabric.loader.prefetchClasses", "false"))) {
+			Path profileFile = provider.getLaunchDirectory().resolve(".fabric").resolve("classLoadOrder-" + envType.name().toLowerCase(Locale.ROOT) + ".txt");
+			prefetcher = new KnotClassPrefetcher(this, profileFile);
+			prefetcher.start();
+		}
+
+		String classListDir = System.getProperty("fabric.loader.classList");
+		if (classListDir != null) {
+			classList = new KnotClassList(Paths.get(classListDir));
+		}
+
 		transformInitialized = true;
 	}
 
+	void onClassDefined(String name, Metadata metadata) {
+		provider.getEntrypointTransformer().release(name);
+
+		if (classList != null) {
+			classList.record(name, metadata.codeSource);
+		}
+	}
+
+	void setLazyRemapper(LazyGameRemapper lazyRemapper) {
+		this.lazyRemapper = lazyRemapper;
+	}
+
+	/**
+	 * Serves classes from a JAR written by {@link KnotBaker} instead of transforming them, if its fingerprint matches.
+	 */
+	void useBakedClasses(Path jar, String fingerprint) {
+		try {
+			JarFile jarFile = new JarFile(jar.toFile());
+			Manifest manifest = jarFile.getManifest();
+			String bakedFingerprint = manifest != null ? manifest.getMainAttributes().getValue(KnotBaker.FINGERPRINT_ATTRIBUTE) : null;
+
+			if (fingerprint.equals(bakedFingerprint)) {
+				bakedJar = jarFile;
+			} else {
+				jarFile.close();
+				System.err.println("Baked classes in " + jar + " don't match the current game and mods, loading classes normally. Bake again to use them.");
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to open baked classes in " + jar + ", loading classes normally: " + e);
+		}
+	}
+
+	/**
+	 * @return Whether the class is stripped entirely in this environment, so it can never be loaded.
+	 */
+	boolean isStrippedClass(String name) throws IOException {
+		byte[] input = getClassByteArray(name, true);
+		return input != null && FabricTransformer.isStrippedEntirely(isDevelopment, envType, name, input);
+	}
+
+	private byte[] getBakedClassByteArray(String name) {
+		JarEntry entry = bakedJar.getJarEntry(getClassFileName(name));
+		if (entry == null) {
+			return null;
+		}
+
+		try (InputStream inputStream = bakedJar.getInputStream(entry)) {
+			return readFully(inputStream);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to load baked class file for '" + name + "'!", e);
+		}
+	}
+
 	private MixinTransformer getMixinTransformer() {
 		assert mixinTransformer != null;
 		return mixinTransformer;
 	}
 
 	Metadata getMetadata(String name, URL resourceURL) {
+		if (resourceURL == null && lazyRemapper != null) {
+			resourceURL = lazyRemapper.getResourceUrl(name);
+		}
+
 		if (resourceURL != null) {
 			URL codeSourceURL = null;
 			String filename = name.replace('.', '/') + ".class";
@@ -147,7 +234,7 @@ class KnotClassDelegate {
 						codeSource = new CodeSource(fCodeSourceUrl, certificates);
 					}
 
-					return new Metadata(manifest, codeSource);
+					return new Metadata(manifest, codeSource, findModId(codeSourceStr));
 				});
 			}
 		}
@@ -155,48 +242,159 @@ class KnotClassDelegate {
 		return Metadata.EMPTY;
 	}
 
-	public byte[] loadClassData(String name, boolean resolve) {
+	static String findModId(String codeSourceStr) {
+		for (ModContainer mod : FabricLoader.INSTANCE.getModContainers()) {
+			if (mod.getOriginUrl().toString().equals(codeSourceStr)) {
+				return mod.getInfo().getId();
+			}
+		}
+
+		return null;
+	}
+
+	public byte[] loadClassData(String name, boolean resolve, KnotClassLoadStats.Sample sample) {
+		long time = System.nanoTime();
+		byte[] cachedInput = classBytesCache.remove(name);
+
 		if (!transformInitialized) {
+			if (cachedInput != null) {
+				sample.inputSize = cachedInput.length;
+				return cachedInput;
+			}
+
 			try {
-				return getClassByteArray(name, true);
+				byte[] input = getClassByteArray(name, true);
+				sample.end(KnotClassLoadStats.Stage.READ, time);
+				sample.inputSize = input != null ? input.length : 0;
+				return input;
 			} catch (IOException e) {
 				throw new RuntimeException("Failed to load class file for '" + name + "'!", e);
 			}
 		}
 
+		if (bakedJar != null) {
+			byte[] b = getBakedClassByteArray(name);
+
+			if (b != null) {
+				sample.end(KnotClassLoadStats.Stage.READ, time);
+				sample.inputSize = b.length;
+				return b;
+			}
+		}
+
 		// Blocking Fabric Loader classes is no longer necessary here as they don't exist on the modding class loader
 		if (/* !"net.fabricmc.api.EnvType".equals(name) && !name.startsWith("net.fabricmc.loader.") && */ !name.startsWith("org.apache.logging.log4j")) {
-			byte[] input = provider.getEntrypointTransformer().transform(name);
-			if (input == null) {
-				try {
-					input = getClassByteArray(name, true);
-				} catch (IOException e) {
-					throw new RuntimeException("Failed to load class file for '" + name + "'!", e);
+			byte[] b = prefetcher != null ? prefetcher.take(name) : null;
+
+			if (b == null) {
+				byte[] input = provider.getEntrypointTransformer().transform(name);
+				time = sample.end(KnotClassLoadStats.Stage.ENTRYPOINT, time);
+
+				if (input == null) {
+					input = cachedInput;
+				}
+
+				if (input == null) {
+					try {
+						input = getClassByteArray(name, true);
+					} catch (IOException e) {
+						throw new RuntimeException("Failed to load class file for '" + name + "'!", e);
+					}
+
+					time = sample.end(KnotClassLoadStats.Stage.READ, time);
 				}
+
+				if (input != null) {
+					sample.inputSize = input.length;
+					b = FabricTransformer.transform(isDevelopment, envType, name, input);
+					time = sample.end(KnotClassLoadStats.Stage.TRANSFORM, time);
+				}
+			} else {
+				sample.inputSize = b.length;
 			}
 
-			if (input != null) {
-				byte[] b = FabricTransformer.transform(isDevelopment, envType, name, input);
+			if (b != null) {
+				if (prefetcher != null) {
+					prefetcher.record(name);
+				}
+
+				if (mixinTargets != null && !mixinTargets.mayTransform(name)) {
+					return b;
+				}
+
 				b = getMixinTransformer().transformClassBytes(name, name, b);
+				sample.end(KnotClassLoadStats.Stage.MIXIN, time);
 				return b;
 			}
 		}
 
 		// We haven't found a class by now, but it could be injected by Mixin
-		return getMixinTransformer().transformClassBytes(name, name, null);
+		byte[] b = getMixinTransformer().transformClassBytes(name, name, null);
+		sample.end(KnotClassLoadStats.Stage.MIXIN, time);
+		return b;
+	}
+
+	/**
+	 * Produces the class bytes loadClassData would pass to Mixin, for staging on a prefetch thread.
+	 * Classes patched by the entrypoint transformer are left to the loading thread.
+	 */
+	byte[] prefetchClassData(String name) throws IOException {
+		if (name.startsWith("org.apache.logging.log4j") || provider.getEntrypointTransformer().transform(name) != null) {
+			return null;
+		}
+
+		byte[] input = getClassByteArray(name, true);
+		return input != null ? FabricTransformer.transform(isDevelopment, envType, name, input) : null;
 	}
 
 	String getClassFileName(String name) {
 		return name.replace('.', '/') + ".class";
 	}
 
+	/**
+	 * Reads class bytes for services inspecting a class before it is loaded, such as Mixin and the entrypoint patches.
+	 * Bytes found on the mod class path are cached until the class is defined, so they are only read once.
+	 */
+	public byte[] getCachedClassByteArray(String name) throws IOException {
+		byte[] data = classBytesCache.get(name);
+		if (data != null) {
+			return data;
+		}
+
+		data = getClassByteArray(name, true);
+		if (data != null) {
+			classBytesCache.put(name, data);
+			return data;
+		}
+
+		// the lazy remapper and the mod class path have been checked already, only the original loader is left
+		return readClassFile(itf.getOriginalLoaderResourceAsStream(getClassFileName(name)));
+	}
+
 	public byte[] getClassByteArray(String name, boolean skipOriginalLoader) throws IOException {
+		if (lazyRemapper != null) {
+			byte[] data = lazyRemapper.getClassBytes(name);
+
+			if (data != null) {
+				return data;
+			}
+		}
+
 		String classFile = getClassFileName(name);
-		InputStream inputStream = itf.getResourceAsStream(classFile, skipOriginalLoader);
+		return readClassFile(itf.getResourceAsStream(classFile, skipOriginalLoader));
+	}
+
+	private static byte[] readClassFile(InputStream inputStream) throws IOException {
 		if (inputStream == null) {
 			return null;
 		}
 
+		byte[] data = readFully(inputStream);
+		inputStream.close();
+		return data;
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException {
 		int a = inputStream.available();
 		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(a < 32 ? 32768 : a);
 		byte[] buffer = new byte[8192];
@@ -205,7 +403,6 @@ class KnotClassDelegate {
 			outputStream.write(buffer, 0, len);
 		}
 
-		inputStream.close();
 		return outputStream.toByteArray();
 	}
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import net.fabricmc.loader.util.UrlConversionException;
+import net.fabricmc.loader.util.UrlUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Writes class lists for JDK class data sharing, enabled with {@code -Dfabric.loader.classList=<directory>}.
+ *
+ * <p>On exit, {@code loader.classlist} lists the classes of Fabric Loader itself, for
+ * {@code -Xshare:dump -XX:SharedClassListFile}, and {@code knot.classlist} lists every class Knot defined, in
+ * definition order. The JVM only archives classes of custom class loaders like Knot in a dynamic archive
+ * ({@code -XX:ArchiveClassesAtExit}, JDK 13+), and only uses them again if they were defined from a JAR file with
+ * identical bytes, so pair it with baked classes (see {@link KnotBaker}) for the archive to stay valid.</p>
+ */
+final class KnotClassList {
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|KnotClassList");
+
+	private final Path directory;
+	private final Queue<String> definedClasses = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger unarchivableClasses = new AtomicInteger();
+
+	KnotClassList(Path directory) {
+		this.directory = directory;
+		Runtime.getRuntime().addShutdownHook(new Thread(this::write, "Knot class list writer"));
+	}
+
+	void record(String name, CodeSource codeSource) {
+		definedClasses.add(name.replace('.', '/'));
+
+		URL location = codeSource != null ? codeSource.getLocation() : null;
+
+		if (location == null || !"file".equals(location.getProtocol()) || !location.getPath().endsWith(".jar")) {
+			unarchivableClasses.incrementAndGet();
+		}
+	}
+
+	private void write() {
+		try {
+			Files.createDirectories(directory);
+			writeList(directory.resolve("loader.classlist"), getLoaderClasses());
+			writeList(directory.resolve("knot.classlist"), definedClasses);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to write class lists to " + directory, e);
+			return;
+		}
+
+		LOGGER.info("Wrote class lists for %d Knot classes to %s", definedClasses.size(), directory);
+
+		if (unarchivableClasses.get() > 0) {
+			LOGGER.info("%d Knot classes weren't defined from a JAR file (nested or development mods) and can't be archived", unarchivableClasses.get());
+		}
+	}
+
+	private static Collection<String> getLoaderClasses() throws IOException {
+		CodeSource codeSource = KnotClassList.class.getProtectionDomain().getCodeSource();
+		if (codeSource == null || codeSource.getLocation() == null) {
+			return Collections.emptyList();
+		}
+
+		Path root;
+
+		try {
+			root = UrlUtil.asPath(codeSource.getLocation());
+		} catch (UrlConversionException e) {
+			throw new IOException(e);
+		}
+
+		List<String> classes = new ArrayList<>();
+
+		if (Files.isDirectory(root)) {
+			try (Stream<Path> stream = Files.walk(root)) {
+				stream.map((p) -> root.relativize(p).toString().replace(root.getFileSystem().getSeparator(), "/"))
+					.forEach((name) -> addClassName(name, classes));
+			}
+		} else {
+			try (JarFile jarFile = new JarFile(root.toFile())) {
+				Enumeration<JarEntry> entries = jarFile.entries();
+
+				while (entries.hasMoreElements()) {
+					addClassName(entries.nextElement().getName(), classes);
+				}
+			}
+		}
+
+		return classes;
+	}
+
+	private static void addClassName(String entryName, Collection<String> classes) {
+		// versioned classes aren't seen by Java 8, and module-info can't be archived
+		if (entryName.endsWith(".class") && !entryName.startsWith("META-INF/") && !entryName.equals("module-info.class")) {
+			classes.add(entryName.substring(0, entryName.length() - 6));
+		}
+	}
+
+	private static void writeList(Path file, Collection<String> classes) throws IOException {
+		Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+			for (String name : classes) {
+				writer.write(name);
+				writer.newLine();
+			}
+		}
+
+		Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate timings of the stages Knot runs classes through, plus per class events for JDK Flight Recorder.
+ *
+ * <p>The JFR sink is compiled against JDK 11 and shipped as a multi-release JAR entry; on older runtimes only the
+ * counters are kept.</p>
+ *
+ * <p>Stage times are exclusive: transforming a class can load other classes on the same thread (Mixin resolving
+ * supertypes, for one), and the time spent on those nested loads is counted under the nested classes only.</p>
+ */
+final class KnotClassLoadStats {
+	enum Stage {
+		READ, ENTRYPOINT, TRANSFORM, MIXIN, DEFINE
+	}
+
+	interface EventSink {
+		/**
+		 * @return An event handle passed to {@link #commit}, or null if recording is disabled.
+		 */
+		Object begin();
+
+		void commit(Object event, Sample sample);
+	}
+
+	static final class Sample {
+		final String name;
+		final long[] stageNanos = new long[STAGES.length];
+		int inputSize;
+		int outputSize;
+		String modId;
+		private final Object event;
+		private final Sample parent;
+		private final long startTime;
+		private long nestedNanos;
+
+		private Sample(String name, Object event, Sample parent) {
+			this.name = name;
+			this.event = event;
+			this.parent = parent;
+			this.startTime = System.nanoTime();
+		}
+
+		/**
+		 * Adds the time since start to a stage, minus the time spent loading nested classes meanwhile.
+		 * @return The current time, to start the next stage with.
+		 */
+		long end(Stage stage, long start) {
+			long time = System.nanoTime();
+			stageNanos[stage.ordinal()] += time - start - nestedNanos;
+			nestedNanos = 0;
+			return time;
+		}
+	}
+
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|KnotClassLoadStats");
+	private static final Stage[] STAGES = Stage.values();
+	private static final EventSink SINK = createSink();
+
+	private static final ThreadLocal<Sample> current = new ThreadLocal<>();
+
+	private static final LongAdder classCount = new LongAdder();
+	private static final LongAdder inputBytes = new LongAdder();
+	private static final LongAdder outputBytes = new LongAdder();
+	private static final LongAdder[] stageNanos = new LongAdder[STAGES.length];
+
+	static {
+		for (int i = 0; i < stageNanos.length; i++) {
+			stageNanos[i] = new LongAdder();
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> LOGGER.debug(getSummary()), "Knot class load stats"));
+	}
+
+	private KnotClassLoadStats() {
+
+	}
+
+	private static EventSink createSink() {
+		try {
+			return (EventSink) Class.forName("net.fabricmc.loader.launch.knot.KnotJfrEventSink").getDeclaredConstructor().newInstance();
+		} catch (Throwable t) {
+			// pre-JDK 11 runtime, or the versioned classes aren't on the class path
+			return null;
+		}
+	}
+
+	/**
+	 * Starts timing a class load, which must be ended with {@link #finish} on the same thread.
+	 */
+	static Sample begin(String name) {
+		Sample sample = new Sample(name, SINK != null ? SINK.begin() : null, current.get());
+		current.set(sample);
+		return sample;
+	}
+
+	/**
+	 * Ends a class load started with {@link #begin}, whether or not it was committed, and charges its total time
+	 * to the class load it is nested in, if any.
+	 */
+	static void finish(Sample sample) {
+		if (sample.parent != null) {
+			sample.parent.nestedNanos += System.nanoTime() - sample.startTime;
+			current.set(sample.parent);
+		} else {
+			current.remove();
+		}
+	}
+
+	/**
+	 * Records a class that has been defined.
+	 */
+	static void commit(Sample sample) {
+		classCount.increment();
+		inputBytes.add(sample.inputSize);
+		outputBytes.add(sample.outputSize);
+
+		for (int i = 0; i < stageNanos.length; i++) {
+			stageNanos[i].add(sample.stageNanos[i]);
+		}
+
+		if (sample.event != null) {
+			SINK.commit(sample.event, sample);
+		}
+	}
+
+	static String getSummary() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(Locale.ROOT, "[Knot] Defined %d classes (%d KiB read, %d KiB defined)",
+			classCount.sum(), inputBytes.sum() / 1024, outputBytes.sum() / 1024));
+
+		for (Stage stage : STAGES) {
+			builder.append(String.format(Locale.ROOT, ", %s: %.1f ms", stage.name().toLowerCase(Locale.ROOT), stageNanos[stage.ordinal()].sum() / 1e6));
+		}
+
+		return builder.toString();
+	}
+}
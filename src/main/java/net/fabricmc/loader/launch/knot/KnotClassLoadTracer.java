@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Attributes classes defined by Knot to the mod whose code requested them, enabled with
+ * {@code -Dfabric.loader.traceClassLoading=true}.
+ *
+ * <p>The requesting mod is the first mod found on the stack of the loading thread, so classes loaded
+ * transitively (super types, classes needed by Mixin) count towards the same mod. Frames from code that isn't a
+ * mod, such as the game JAR, are skipped; the game is only blamed if no mod is on the stack at all.</p>
+ *
+ * <p>Each class contributes its own time, excluding nested class loads, so the per-mod totals add up to the
+ * overall class loading time.</p>
+ */
+final class KnotClassLoadTracer {
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|KnotClassLoadTracer");
+	private static final String UNKNOWN = "<unknown>";
+
+	static final class Frame {
+		private final Frame parent;
+		private final long start;
+		private long childNanos;
+
+		private Frame(Frame parent, long start) {
+			this.parent = parent;
+			this.start = start;
+		}
+	}
+
+	private static final class ModStats {
+		final LongAdder classes = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+	}
+
+	interface CallerResolver {
+		/**
+		 * Applies the function to the classes on the stack of the current thread, innermost first.
+		 */
+		<T> T walk(Function<Stream<Class<?>>, T> function);
+	}
+
+	// SecurityManager is deprecated for removal, but it's the only way to get the calling classes on Java 8.
+	// On JDK 11+ the versioned KnotStackWalkerCallerResolver is used instead.
+	@SuppressWarnings("removal")
+	private static final class SecurityManagerCallerResolver extends SecurityManager implements CallerResolver {
+		@Override
+		public <T> T walk(Function<Stream<Class<?>>, T> function) {
+			return function.apply(Arrays.stream(getClassContext()));
+		}
+	}
+
+	private static final CallerResolver CALLER_RESOLVER = createCallerResolver();
+
+	private final ClassLoader loader;
+	private final ThreadLocal<Frame> currentFrame = new ThreadLocal<>();
+	private final Map<String, String> modIds = new ConcurrentHashMap<>();
+	private final Map<String, ModStats> stats = new ConcurrentHashMap<>();
+
+	KnotClassLoadTracer(ClassLoader loader) {
+		this.loader = loader;
+		Runtime.getRuntime().addShutdownHook(new Thread(this::logReport, "Knot class load report"));
+	}
+
+	private static CallerResolver createCallerResolver() {
+		try {
+			return (CallerResolver) Class.forName("net.fabricmc.loader.launch.knot.KnotStackWalkerCallerResolver").getDeclaredConstructor().newInstance();
+		} catch (Throwable t) {
+			// pre-JDK 11 runtime, or the versioned classes aren't on the class path
+			return new SecurityManagerCallerResolver();
+		}
+	}
+
+	Frame begin() {
+		Frame frame = new Frame(currentFrame.get(), System.nanoTime());
+		currentFrame.set(frame);
+		return frame;
+	}
+
+	/**
+	 * @param defined Whether the call defined a new class, as opposed to finding an already loaded one.
+	 */
+	void end(Frame frame, boolean defined) {
+		long nanos = System.nanoTime() - frame.start;
+
+		if (frame.parent != null) {
+			frame.parent.childNanos += nanos;
+			currentFrame.set(frame.parent);
+		} else {
+			currentFrame.remove();
+		}
+
+		if (defined) {
+			ModStats modStats = stats.computeIfAbsent(findRequester(), (k) -> new ModStats());
+			modStats.classes.increment();
+			modStats.nanos.add(nanos - frame.childNanos);
+		}
+	}
+
+	private String findRequester() {
+		return CALLER_RESOLVER.walk(this::findRequester);
+	}
+
+	private String findRequester(Stream<Class<?>> callers) {
+		String fallback = null;
+
+		for (Iterator<Class<?>> it = callers.iterator(); it.hasNext(); ) {
+			Class<?> c = it.next();
+
+			if (c.getClassLoader() != loader) {
+				continue;
+			}
+
+			CodeSource codeSource = c.getProtectionDomain().getCodeSource();
+			if (codeSource == null || codeSource.getLocation() == null) {
+				continue;
+			}
+
+			String location = codeSource.getLocation().toString();
+			// mod IDs are never empty, so an empty string marks code sources that don't belong to a mod
+			String modId = modIds.computeIfAbsent(location, (l) -> {
+				String id = KnotClassDelegate.findModId(l);
+				return id != null ? id : "";
+			});
+
+			if (!modId.isEmpty()) {
+				return modId;
+			}
+
+			// e.g. the remapped game JAR, which isn't the builtin mod's origin; keep looking for a mod calling into it
+			if (fallback == null) {
+				int fileStart = location.lastIndexOf('/', location.length() - 2);
+				fallback = location.substring(fileStart + 1);
+			}
+		}
+
+		return fallback != null ? fallback : UNKNOWN;
+	}
+
+	private void logReport() {
+		StringBuilder builder = new StringBuilder("[Knot] Classes loaded by requesting mod:");
+
+		stats.entrySet().stream()
+			.sorted(Comparator.comparingLong((Map.Entry<String, ModStats> e) -> e.getValue().nanos.sum()).reversed())
+			.forEach((e) -> builder.append(String.format(Locale.ROOT, "%n - %s: %d classes, %.1f ms",
+				e.getKey(), e.getValue().classes.sum(), e.getValue().nanos.sum() / 1e6)));
+
+		LOGGER.info(builder.toString());
+	}
+}
@@ -24,15 +24,27 @@ import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.SecureClassLoader;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterface {
 	private static class DynamicURLClassLoader extends URLClassLoader {
+		private final KnotClassLoadingLocks locks = new KnotClassLoadingLocks();
+
 		private DynamicURLClassLoader(URL[] urls) {
 			super(urls, new DummyClassLoader());
 		}
 
+		@Override
+		protected Object getClassLoadingLock(String className) {
+			return locks.get(className);
+		}
+
 		@Override
 		public void addURL(URL url) {
 			super.addURL(url);
@@ -43,15 +55,26 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 		}
 	}
 
+	private static final int MAX_CACHED_MISSES = 1 << 15;
+
 	private final DynamicURLClassLoader urlLoader;
 	private final ClassLoader originalLoader;
 	private final KnotClassDelegate delegate;
+	private final KnotClassLoadingLocks locks = new KnotClassLoadingLocks();
+	private final KnotClassLoadTracer tracer;
+	private final KnotResourceIndex resourceIndex = new KnotResourceIndex();
+	// names known to be absent, so repeated probes for optional classes and resources skip the class path walk
+	// url loader misses remember the class path generation they were observed in, as addURL may add the name
+	private final Map<String, Integer> urlLoaderMisses = new ConcurrentHashMap<>();
+	private final Set<String> originalLoaderMisses = ConcurrentHashMap.newKeySet();
+	private volatile int urlLoaderGeneration;
 
 	KnotClassLoader(boolean isDevelopment, EnvType envType, GameProvider provider) {
 		super(new DynamicURLClassLoader(new URL[0]));
 		this.originalLoader = getClass().getClassLoader();
 		this.urlLoader = (DynamicURLClassLoader) getParent();
 		this.delegate = new KnotClassDelegate(isDevelopment, envType, this, provider);
+		this.tracer = Boolean.parseBoolean(System.getProperty("fabric.loader.traceClassLoading", "false")) ? new KnotClassLoadTracer(this) : null;
 	}
 
 	@Override
@@ -59,6 +82,11 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 		return delegate;
 	}
 
+	@Override
+	protected Object getClassLoadingLock(String className) {
+		return locks.get(className);
+	}
+
 	@Override
 	public boolean isClassLoaded(String name) {
 		synchronized (getClassLoadingLock(name)) {
@@ -70,9 +98,9 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 	public URL getResource(String name) {
 		Objects.requireNonNull(name);
 
-		URL url = urlLoader.getResource(name);
+		URL url = getUrlLoaderResource(name);
 		if (url == null) {
-			url = originalLoader.getResource(name);
+			url = getOriginalLoaderResource(name);
 		}
 		return url;
 	}
@@ -81,18 +109,91 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 	public InputStream getResourceAsStream(String name) {
 		Objects.requireNonNull(name);
 
+		InputStream inputStream = getUrlLoaderResourceAsStream(name);
+		if (inputStream == null) {
+			inputStream = getOriginalLoaderResourceAsStream(name);
+		}
+		return inputStream;
+	}
+
+	private URL getUrlLoaderResource(String name) {
+		int generation = urlLoaderGeneration;
+		if (isUrlLoaderMiss(name, generation) || resourceIndex.isAbsent(name)) {
+			return null;
+		}
+
+		URL url = urlLoader.getResource(name);
+		if (url == null) {
+			addUrlLoaderMiss(name, generation);
+		}
+		return url;
+	}
+
+	private URL getOriginalLoaderResource(String name) {
+		if (originalLoaderMisses.contains(name)) {
+			return null;
+		}
+
+		URL url = originalLoader.getResource(name);
+		if (url == null) {
+			addMiss(originalLoaderMisses, name);
+		}
+		return url;
+	}
+
+	private InputStream getUrlLoaderResourceAsStream(String name) {
+		int generation = urlLoaderGeneration;
+		if (isUrlLoaderMiss(name, generation) || resourceIndex.isAbsent(name)) {
+			return null;
+		}
+
 		InputStream inputStream = urlLoader.getResourceAsStream(name);
 		if (inputStream == null) {
-			inputStream = originalLoader.getResourceAsStream(name);
+			addUrlLoaderMiss(name, generation);
+		}
+		return inputStream;
+	}
+
+	@Override
+	public InputStream getOriginalLoaderResourceAsStream(String name) {
+		if (originalLoaderMisses.contains(name)) {
+			return null;
+		}
+
+		InputStream inputStream = originalLoader.getResourceAsStream(name);
+		if (inputStream == null) {
+			addMiss(originalLoaderMisses, name);
 		}
 		return inputStream;
 	}
 
+	private boolean isUrlLoaderMiss(String name, int generation) {
+		Integer missGeneration = urlLoaderMisses.get(name);
+		return missGeneration != null && missGeneration == generation;
+	}
+
+	private void addUrlLoaderMiss(String name, int generation) {
+		if (urlLoaderMisses.size() >= MAX_CACHED_MISSES) {
+			urlLoaderMisses.clear();
+		}
+
+		urlLoaderMisses.put(name, generation);
+	}
+
+	private static void addMiss(Set<String> misses, String name) {
+		if (misses.size() >= MAX_CACHED_MISSES) {
+			misses.clear();
+		}
+
+		misses.add(name);
+	}
+
 	@Override
 	public Enumeration<URL> getResources(String name) throws IOException {
 		Objects.requireNonNull(name);
 
-		Enumeration<URL> first = urlLoader.getResources(name);
+		List<URL> indexed = resourceIndex.getResources(name);
+		Enumeration<URL> first = indexed != null ? Collections.enumeration(indexed) : urlLoader.getResources(name);
 		Enumeration<URL> second = originalLoader.getResources(name);
 		return new Enumeration<URL>() {
 			Enumeration<URL> current = first;
@@ -140,20 +241,37 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 			Class<?> c = findLoadedClass(name);
 
 			if (c == null && !name.startsWith("com.google.gson.")) { // FIXME: remove the GSON exclusion once loader stops using it (or repackages it)
-				byte[] input = delegate.loadClassData(name, resolve);
-				if (input != null) {
-					KnotClassDelegate.Metadata metadata = delegate.getMetadata(name, urlLoader.getResource(delegate.getClassFileName(name)));
-
-					int pkgDelimiterPos = name.lastIndexOf('.');
-					if (pkgDelimiterPos > 0) {
-						// TODO: package definition stub
-						String pkgString = name.substring(0, pkgDelimiterPos);
-						if (getPackage(pkgString) == null) {
-							definePackage(pkgString, null, null, null, null, null, null, null);
+				KnotClassLoadTracer.Frame traceFrame = tracer != null ? tracer.begin() : null;
+				KnotClassLoadStats.Sample sample = KnotClassLoadStats.begin(name);
+
+				try {
+					byte[] input = delegate.loadClassData(name, resolve, sample);
+					if (input != null) {
+						KnotClassDelegate.Metadata metadata = delegate.getMetadata(name, getUrlLoaderResource(delegate.getClassFileName(name)));
+
+						int pkgDelimiterPos = name.lastIndexOf('.');
+						if (pkgDelimiterPos > 0) {
+							// TODO: package definition stub
+							String pkgString = name.substring(0, pkgDelimiterPos);
+							if (getPackage(pkgString) == null) {
+								definePackage(pkgString, null, null, null, null, null, null, null);
+							}
 						}
+
+						long time = System.nanoTime();
+						c = defineClass(name, input, 0, input.length, metadata.codeSource);
+						sample.end(KnotClassLoadStats.Stage.DEFINE, time);
+						sample.outputSize = input.length;
+						sample.modId = metadata.modId;
+						KnotClassLoadStats.commit(sample);
+						delegate.onClassDefined(name, metadata);
 					}
+				} finally {
+					KnotClassLoadStats.finish(sample);
 
-					c = defineClass(name, input, 0, input.length, metadata.codeSource);
+					if (traceFrame != null) {
+						tracer.end(traceFrame, c != null);
+					}
 				}
 			}
 
@@ -171,7 +289,18 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 
 	@Override
 	public void addURL(URL url) {
-		urlLoader.addURL(url);
+		synchronized (urlLoaderMisses) {
+			urlLoader.addURL(url);
+			resourceIndex.addRoot(url);
+			urlLoaderGeneration++;
+		}
+
+		urlLoaderMisses.clear();
+	}
+
+	@Override
+	public URL[] getURLs() {
+		return urlLoader.getURLs();
 	}
 
 	static {
@@ -180,9 +309,9 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 
 	@Override
 	public InputStream getResourceAsStream(String classFile, boolean skipOriginalLoader) throws IOException {
-		InputStream inputStream = urlLoader.getResourceAsStream(classFile);
+		InputStream inputStream = getUrlLoaderResourceAsStream(classFile);
 		if (inputStream == null && !skipOriginalLoader) {
-			inputStream = originalLoader.getResourceAsStream(classFile);
+			inputStream = getOriginalLoaderResourceAsStream(classFile);
 		}
 		return inputStream;
 	}
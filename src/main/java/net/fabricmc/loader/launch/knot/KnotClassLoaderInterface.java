@@ -24,5 +24,11 @@ interface KnotClassLoaderInterface {
 	KnotClassDelegate getDelegate();
 	boolean isClassLoaded(String name);
 	void addURL(URL url);
+	URL[] getURLs();
 	InputStream getResourceAsStream(String filename, boolean skipOriginalLoader) throws IOException;
+
+	/**
+	 * Looks a resource up in the original loader only, for resources already known to be missing elsewhere.
+	 */
+	InputStream getOriginalLoaderResourceAsStream(String filename) throws IOException;
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per class name lock objects for parallel capable class loaders.
+ *
+ * <p>The JDK keeps one lock per requested name forever, including names that were never found. Here locks are
+ * only weakly held, so an entry goes away once no thread is loading that class anymore. Striping isn't an option,
+ * as unrelated names sharing a lock could deadlock when loading one class triggers loading another.</p>
+ */
+final class KnotClassLoadingLocks {
+	private static final class LockRef extends WeakReference<Object> {
+		final String name;
+
+		LockRef(String name, Object lock, ReferenceQueue<Object> queue) {
+			super(lock, queue);
+			this.name = name;
+		}
+	}
+
+	private final Map<String, LockRef> locks = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+	Object get(String name) {
+		expungeStaleEntries();
+
+		while (true) {
+			LockRef ref = locks.get(name);
+			Object lock = ref != null ? ref.get() : null;
+
+			if (lock != null) {
+				return lock;
+			}
+
+			lock = new Object();
+			LockRef newRef = new LockRef(name, lock, queue);
+
+			if (ref == null ? locks.putIfAbsent(name, newRef) == null : locks.replace(name, ref, newRef)) {
+				return lock;
+			}
+		}
+	}
+
+	private void expungeStaleEntries() {
+		LockRef ref;
+
+		while ((ref = (LockRef) queue.poll()) != null) {
+			locks.remove(ref.name, ref);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the order in which Knot defines classes and, on the next launch, reads and runs the non-Mixin
+ * transformers for upcoming classes on background threads. Staged bytes are handed to the loading thread,
+ * which still defines every class itself and in demand order.
+ */
+final class KnotClassPrefetcher {
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|KnotClassPrefetcher");
+	/** How far the prefetch threads may run ahead of the most recently loaded class. */
+	private static final int WINDOW = 512;
+	private static final int MAX_RECORDED = 1 << 16;
+
+	private final KnotClassDelegate delegate;
+	private final Path profileFile;
+	private final String[] profile;
+	private final Map<String, Integer> profileIndex;
+	private final AtomicReferenceArray<byte[]> staged;
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	private final Queue<String> recorded = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger recordedCount = new AtomicInteger();
+	private int consumedIndex = -1; // guarded by this
+	private int clearedIndex = 0; // guarded by this
+
+	KnotClassPrefetcher(KnotClassDelegate delegate, Path profileFile) {
+		this.delegate = delegate;
+		this.profileFile = profileFile;
+		this.profile = readProfile(profileFile);
+		this.profileIndex = new HashMap<>(profile.length * 4 / 3 + 1);
+		this.staged = new AtomicReferenceArray<>(profile.length);
+
+		for (int i = 0; i < profile.length; i++) {
+			profileIndex.putIfAbsent(profile[i], i);
+		}
+	}
+
+	void start() {
+		Runtime.getRuntime().addShutdownHook(new Thread(this::writeProfile, "Knot class profile writer"));
+
+		if (profile.length == 0) {
+			return;
+		}
+
+		int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(this::prefetch, "Knot class prefetcher #" + i);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+
+	/**
+	 * @return The staged bytes for the class, or null if it hasn't been prefetched.
+	 */
+	byte[] take(String name) {
+		Integer index = profileIndex.get(name);
+		if (index == null) {
+			return null;
+		}
+
+		byte[] data = staged.getAndSet(index, null);
+
+		synchronized (this) {
+			if (index > consumedIndex) {
+				consumedIndex = index;
+
+				// drop classes the game skipped this time around
+				for (; clearedIndex < consumedIndex - WINDOW; clearedIndex++) {
+					staged.set(clearedIndex, null);
+				}
+
+				notifyAll();
+			}
+		}
+
+		return data;
+	}
+
+	void record(String name) {
+		if (recordedCount.incrementAndGet() <= MAX_RECORDED) {
+			recorded.add(name);
+		}
+	}
+
+	private void prefetch() {
+		int index;
+
+		while ((index = nextIndex.getAndIncrement()) < profile.length) {
+			synchronized (this) {
+				while (index > consumedIndex + WINDOW) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+
+				if (index < clearedIndex) {
+					continue;
+				}
+			}
+
+			try {
+				byte[] data = delegate.prefetchClassData(profile[index]);
+
+				if (data != null) {
+					staged.set(index, data);
+				}
+			} catch (Throwable t) {
+				// the loading thread will run into the same problem and report it
+				LOGGER.debug("Failed to prefetch class " + profile[index], t);
+			}
+		}
+	}
+
+	private static String[] readProfile(Path file) {
+		if (!Files.exists(file)) {
+			return new String[0];
+		}
+
+		try {
+			return Files.readAllLines(file, StandardCharsets.UTF_8).stream().filter(s -> !s.isEmpty()).toArray(String[]::new);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to read class load profile " + file, e);
+			return new String[0];
+		}
+	}
+
+	private void writeProfile() {
+		if (recorded.isEmpty()) {
+			return;
+		}
+
+		Path tmpFile = profileFile.resolveSibling(profileFile.getFileName() + ".tmp");
+
+		try {
+			Files.createDirectories(profileFile.getParent());
+
+			try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+				for (String name : recorded) {
+					writer.write(name);
+					writer.newLine();
+				}
+			}
+
+			Files.move(tmpFile, profileFile, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to write class load profile " + profileFile, e);
+		}
+	}
+}
@@ -26,10 +26,13 @@ import java.net.URLClassLoader;
 
 class KnotCompatibilityClassLoader extends URLClassLoader implements KnotClassLoaderInterface {
 	private final KnotClassDelegate delegate;
+	private final KnotClassLoadingLocks locks = new KnotClassLoadingLocks();
+	private final KnotClassLoadTracer tracer;
 
 	KnotCompatibilityClassLoader(boolean isDevelopment, EnvType envType, GameProvider provider) {
 		super(new URL[0], KnotCompatibilityClassLoader.class.getClassLoader());
 		this.delegate = new KnotClassDelegate(isDevelopment, envType, this, provider);
+		this.tracer = Boolean.parseBoolean(System.getProperty("fabric.loader.traceClassLoading", "false")) ? new KnotClassLoadTracer(this) : null;
 	}
 
 	@Override
@@ -37,6 +40,11 @@ class KnotCompatibilityClassLoader extends URLClassLoader implements KnotClassLo
 		return delegate;
 	}
 
+	@Override
+	protected Object getClassLoadingLock(String className) {
+		return locks.get(className);
+	}
+
 	@Override
 	public boolean isClassLoaded(String name) {
 		synchronized (getClassLoadingLock(name)) {
@@ -50,20 +58,37 @@ class KnotCompatibilityClassLoader extends URLClassLoader implements KnotClassLo
 			Class<?> c = findLoadedClass(name);
 
 			if (c == null) {
-				byte[] input = delegate.loadClassData(name, resolve);
-				if (input != null) {
-					KnotClassDelegate.Metadata metadata = delegate.getMetadata(name, getResource(delegate.getClassFileName(name)));
-
-					int pkgDelimiterPos = name.lastIndexOf('.');
-					if (pkgDelimiterPos > 0) {
-						// TODO: package definition stub
-						String pkgString = name.substring(0, pkgDelimiterPos);
-						if (getPackage(pkgString) == null) {
-							definePackage(pkgString, null, null, null, null, null, null, null);
+				KnotClassLoadTracer.Frame traceFrame = tracer != null ? tracer.begin() : null;
+				KnotClassLoadStats.Sample sample = KnotClassLoadStats.begin(name);
+
+				try {
+					byte[] input = delegate.loadClassData(name, resolve, sample);
+					if (input != null) {
+						KnotClassDelegate.Metadata metadata = delegate.getMetadata(name, getResource(delegate.getClassFileName(name)));
+
+						int pkgDelimiterPos = name.lastIndexOf('.');
+						if (pkgDelimiterPos > 0) {
+							// TODO: package definition stub
+							String pkgString = name.substring(0, pkgDelimiterPos);
+							if (getPackage(pkgString) == null) {
+								definePackage(pkgString, null, null, null, null, null, null, null);
+							}
 						}
+
+						long time = System.nanoTime();
+						c = defineClass(name, input, 0, input.length, metadata.codeSource);
+						sample.end(KnotClassLoadStats.Stage.DEFINE, time);
+						sample.outputSize = input.length;
+						sample.modId = metadata.modId;
+						KnotClassLoadStats.commit(sample);
+						delegate.onClassDefined(name, metadata);
 					}
+				} finally {
+					KnotClassLoadStats.finish(sample);
 
-					c = defineClass(name, input, 0, input.length, metadata.codeSource);
+					if (traceFrame != null) {
+						tracer.end(traceFrame, c != null);
+					}
 				}
 			}
 
@@ -98,4 +123,9 @@ class KnotCompatibilityClassLoader extends URLClassLoader implements KnotClassLo
 
 		return super.getResourceAsStream(classFile);
 	}
+
+	@Override
+	public InputStream getOriginalLoaderResourceAsStream(String filename) {
+		return getParent().getResourceAsStream(filename);
+	}
 }
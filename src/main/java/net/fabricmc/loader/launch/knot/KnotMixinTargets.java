@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import org.spongepowered.asm.mixin.MixinEnvironment;
+import org.spongepowered.asm.mixin.Mixins;
+import org.spongepowered.asm.mixin.extensibility.IMixinConfig;
+import org.spongepowered.asm.mixin.transformer.Config;
+
+import java.util.*;
+
+/**
+ * Tells which classes Mixin may have to transform, so every other class can skip the Mixin transformer.
+ *
+ * <p>{@code MixinTransformer.transformClassBytes} is synchronized, which serializes all class loading threads
+ * behind it even though most classes aren't mixin targets. A class needs Mixin if a selected config targets it, or
+ * if it is in a mixin package (mixins and their inner classes must go through Mixin to be rejected or
+ * post-processed). Classes generated by Mixin have no bytes and always go through it.</p>
+ *
+ * <p>The snapshot is taken while holding the transformer's monitor, so config selection can't be in progress, and
+ * only once every registered config has been selected; until then, and after configs are added, every class goes
+ * through Mixin.</p>
+ */
+final class KnotMixinTargets {
+	private static final class Snapshot {
+		final int configCount;
+		final Set<String> targets;
+		final String[] packages;
+
+		Snapshot(int configCount, Set<String> targets, String[] packages) {
+			this.configCount = configCount;
+			this.targets = targets;
+			this.packages = packages;
+		}
+	}
+
+	private final Object transformer;
+	private volatile Snapshot snapshot;
+
+	KnotMixinTargets(Object transformer) {
+		this.transformer = transformer;
+	}
+
+	/**
+	 * @return False if Mixin is known to leave the class untouched.
+	 */
+	boolean mayTransform(String name) {
+		Snapshot snapshot = this.snapshot;
+
+		if (snapshot == null || snapshot.configCount != Mixins.getConfigs().size()) {
+			snapshot = takeSnapshot();
+
+			if (snapshot == null) {
+				return true;
+			}
+		}
+
+		if (snapshot.targets.contains(name)) {
+			return true;
+		}
+
+		for (String pkg : snapshot.packages) {
+			if (name.startsWith(pkg)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private Snapshot takeSnapshot() {
+		synchronized (transformer) {
+			// exported classes include untouched ones
+			if (Mixins.getUnvisitedCount() > 0 || MixinEnvironment.getCurrentEnvironment().getOption(MixinEnvironment.Option.DEBUG_EXPORT)) {
+				return null;
+			}
+
+			Set<Config> configs = Mixins.getConfigs();
+			Set<String> targets = new HashSet<>();
+			List<String> packages = new ArrayList<>(configs.size());
+
+			for (Config config : configs) {
+				IMixinConfig mixinConfig = config.getConfig();
+				targets.addAll(mixinConfig.getTargets());
+
+				String pkg = mixinConfig.getMixinPackage();
+
+				if (pkg != null && !pkg.isEmpty()) {
+					packages.add(pkg.endsWith(".") ? pkg : pkg + ".");
+				}
+			}
+
+			Snapshot snapshot = new Snapshot(configs.size(), targets, packages.toArray(new String[0]));
+			this.snapshot = snapshot;
+			return snapshot;
+		}
+	}
+}
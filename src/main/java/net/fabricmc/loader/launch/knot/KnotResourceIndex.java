@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import net.fabricmc.loader.util.UrlConversionException;
+import net.fabricmc.loader.util.UrlUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Maps entry names to the class path roots containing them, in class path order.
+ *
+ * <p>JAR roots are indexed once, on the first query after they were added. Directory roots may change at runtime,
+ * so they are checked on every query instead. Lookups the index can't answer exactly return null, and the caller
+ * falls back to walking the class path.</p>
+ */
+final class KnotResourceIndex {
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|KnotResourceIndex");
+	private static final Root[] NO_ROOTS = new Root[0];
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+	private static final class Root {
+		final URL baseUrl;
+		final Path directory;
+
+		Root(URL baseUrl, Path directory) {
+			this.baseUrl = baseUrl;
+			this.directory = directory;
+		}
+	}
+
+	private final List<URL> pendingUrls = new ArrayList<>(); // guarded by this
+	private final List<Root> roots = new CopyOnWriteArrayList<>();
+	private final Map<String, Root[]> jarEntries = new ConcurrentHashMap<>();
+	private volatile boolean hasPendingUrls;
+	private volatile boolean hasDirectories;
+	private volatile boolean complete = true;
+
+	synchronized void addRoot(URL url) {
+		pendingUrls.add(url);
+		hasPendingUrls = true;
+	}
+
+	/**
+	 * @return The URLs of the entry in class path order, or null if the class path has to be walked instead.
+	 */
+	List<URL> getResources(String name) {
+		if (!isIndexable(name)) {
+			return null;
+		}
+
+		indexPendingRoots();
+		if (!complete) {
+			return null;
+		}
+
+		Root[] owners = jarEntries.getOrDefault(name, NO_ROOTS);
+		if (!hasDirectories && owners.length == 0) {
+			return Collections.emptyList();
+		}
+
+		List<URL> urls = new ArrayList<>(owners.length);
+		String encodedName = encode(name);
+		if (encodedName == null) {
+			return null;
+		}
+
+		try {
+			for (Root root : roots) {
+				if (root.directory != null) {
+					if (Files.exists(root.directory.resolve(name))) {
+						urls.add(new URL(root.baseUrl, encodedName));
+					}
+				} else if (contains(owners, root)) {
+					urls.add(new URL(root.baseUrl, encodedName));
+				}
+			}
+		} catch (MalformedURLException e) {
+			return null;
+		}
+
+		return urls;
+	}
+
+	/**
+	 * @return True if the entry is known not to exist on the indexed class path.
+	 */
+	boolean isAbsent(String name) {
+		if (!isIndexable(name)) {
+			return false;
+		}
+
+		indexPendingRoots();
+		return complete && !hasDirectories && !jarEntries.containsKey(name);
+	}
+
+	private static boolean isIndexable(String name) {
+		return !name.isEmpty() && !name.endsWith("/") && !name.startsWith("/") && !name.contains("..");
+	}
+
+	private static boolean contains(Root[] owners, Root root) {
+		for (Root owner : owners) {
+			if (owner == root) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String encode(String name) {
+		try {
+			return new URI(null, null, name, null).getRawPath();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	private void indexPendingRoots() {
+		if (!hasPendingUrls) {
+			return;
+		}
+
+		synchronized (this) {
+			if (hasPendingUrls) {
+				indexRoots(pendingUrls);
+				pendingUrls.clear();
+				hasPendingUrls = false;
+			}
+		}
+	}
+
+	private void indexRoots(List<URL> urls) {
+		long time = System.nanoTime();
+
+		for (URL url : urls) {
+			try {
+				Path path = UrlUtil.asPath(url);
+
+				if (Files.isDirectory(path)) {
+					roots.add(new Root(url, path));
+					hasDirectories = true;
+				} else {
+					Root root = new Root(new URL("jar", "", -1, url + "!/"), null);
+					roots.add(root);
+					indexJar(root, path);
+				}
+			} catch (IOException | UrlConversionException | RuntimeException e) {
+				LOGGER.debug("Could not index class path root " + url + ", resource lookups will walk the class path", e);
+				complete = false;
+			}
+		}
+
+		LOGGER.debug("Indexed %d class path roots in %.2f ms", urls.size(), (System.nanoTime() - time) / 1e6);
+	}
+
+	private void indexJar(Root root, Path path) throws IOException {
+		if (path.getFileSystem() == FileSystems.getDefault()) {
+			try (JarFile jarFile = new JarFile(path.toFile())) {
+				Enumeration<JarEntry> entries = jarFile.entries();
+
+				while (entries.hasMoreElements()) {
+					addEntry(entries.nextElement().getName(), root);
+				}
+			}
+		} else {
+			// e.g. nested JARs kept in memory
+			try (InputStream stream = Files.newInputStream(path); ZipInputStream zipStream = new ZipInputStream(stream)) {
+				ZipEntry entry;
+
+				while ((entry = zipStream.getNextEntry()) != null) {
+					addEntry(entry.getName(), root);
+				}
+			}
+		}
+	}
+
+	private void addEntry(String name, Root root) {
+		// JarFile.getEntry also finds directory entries without their trailing slash
+		if (name.endsWith("/")) {
+			name = name.substring(0, name.length() - 1);
+		}
+
+		// multi-release JARs may serve versioned entries under their base name
+		if (name.startsWith(VERSIONS_PREFIX)) {
+			int versionEnd = name.indexOf('/', VERSIONS_PREFIX.length());
+
+			if (versionEnd > 0 && versionEnd + 1 < name.length()) {
+				addEntry(name.substring(versionEnd + 1), root);
+			}
+		}
+
+		Root[] owners = jarEntries.get(name);
+
+		if (owners == null) {
+			jarEntries.put(name, new Root[] { root });
+		} else if (owners[owners.length - 1] != root) {
+			owners = Arrays.copyOf(owners, owners.length + 1);
+			owners[owners.length - 1] = root;
+			jarEntries.put(name, owners);
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.transformer;
+
+import net.fabricmc.api.EnvType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Caches, per mod JAR, which interfaces, fields and methods have to be stripped from each class for every
+ * environment type. Classes covered by the index don't need to be scanned by ASM at load time.
+ *
+ * <p>Each indexed class is stored with the size and CRC of its class file, and is only used for a class file that
+ * matches them. Another copy of the class, e.g. from a different mod or a class path directory, is scanned.</p>
+ */
+public final class EnvironmentStripIndex {
+	private static final Logger LOGGER = LogManager.getFormatterLogger("FabricLoader|EnvironmentStripIndex");
+	private static final int FORMAT_VERSION = 2;
+
+	private static final Map<String, IndexedClass> classes = new ConcurrentHashMap<>();
+
+	public static final class Entry {
+		public static final Entry EMPTY = new Entry(false, Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+
+		private final boolean stripEntireClass;
+		private final Collection<String> stripInterfaces;
+		private final Collection<String> stripFields;
+		private final Collection<String> stripMethods;
+
+		private Entry(boolean stripEntireClass, Collection<String> stripInterfaces, Collection<String> stripFields, Collection<String> stripMethods) {
+			this.stripEntireClass = stripEntireClass;
+			this.stripInterfaces = stripInterfaces;
+			this.stripFields = stripFields;
+			this.stripMethods = stripMethods;
+		}
+
+		static Entry of(EnvironmentStrippingData data) {
+			if (!data.stripEntireClass() && data.isEmpty()) {
+				return EMPTY;
+			}
+
+			return new Entry(data.stripEntireClass(), data.getStripInterfaces(), data.getStripFields(), data.getStripMethods());
+		}
+
+		public boolean stripEntireClass() {
+			return stripEntireClass;
+		}
+
+		public Collection<String> getStripInterfaces() {
+			return stripInterfaces;
+		}
+
+		public Collection<String> getStripFields() {
+			return stripFields;
+		}
+
+		public Collection<String> getStripMethods() {
+			return stripMethods;
+		}
+
+		public boolean isEmpty() {
+			return stripInterfaces.isEmpty() && stripFields.isEmpty() && stripMethods.isEmpty();
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeBoolean(stripEntireClass);
+			writeStrings(out, stripInterfaces);
+			writeStrings(out, stripFields);
+			writeStrings(out, stripMethods);
+		}
+
+		private static Entry read(DataInputStream in) throws IOException {
+			boolean stripEntireClass = in.readBoolean();
+			Collection<String> stripInterfaces = readStrings(in);
+			Collection<String> stripFields = readStrings(in);
+			Collection<String> stripMethods = readStrings(in);
+
+			if (!stripEntireClass && stripInterfaces.isEmpty() && stripFields.isEmpty() && stripMethods.isEmpty()) {
+				return EMPTY;
+			}
+
+			return new Entry(stripEntireClass, stripInterfaces, stripFields, stripMethods);
+		}
+	}
+
+	/**
+	 * A copy of a class in some indexed JAR. Copies with the same name but different class files are chained.
+	 */
+	private static final class IndexedClass {
+		final int size;
+		final int crc;
+		final Entry[] envEntries;
+		final IndexedClass next;
+
+		IndexedClass(int size, int crc, Entry[] envEntries, IndexedClass next) {
+			this.size = size;
+			this.crc = crc;
+			this.envEntries = envEntries;
+			this.next = next;
+		}
+
+		boolean matches(int size, int crc) {
+			return this.size == size && this.crc == crc;
+		}
+	}
+
+	private EnvironmentStripIndex() {
+
+	}
+
+	/**
+	 * Finds the strip data of a class through its constant pool and annotations.
+	 */
+	public static Entry scan(ClassReader reader, EnvType envType) {
+		if (!EnvironmentStrippingData.mayContainEnvironmentAnnotations(reader)) {
+			return Entry.EMPTY;
+		}
+
+		EnvironmentStrippingData data = new EnvironmentStrippingData(Opcodes.ASM7, envType.toString());
+		reader.accept(data, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+		return Entry.of(data);
+	}
+
+	/**
+	 * @param name The class name, in dot format.
+	 * @param bytes The class file being loaded.
+	 * @return The indexed strip data, or null if no indexed JAR contains this class file.
+	 */
+	public static Entry get(String name, byte[] bytes, EnvType envType) {
+		IndexedClass indexed = classes.get(name);
+		if (indexed == null) {
+			return null;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		int value = (int) crc.getValue();
+
+		for (; indexed != null; indexed = indexed.next) {
+			if (indexed.matches(bytes.length, value)) {
+				return indexed.envEntries[envType.ordinal()];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Loads the strip index of a JAR from the cache directory, building it if it's missing or outdated.
+	 *
+	 * <p>Only JARs on the default file system are cached. Others, such as nested JARs extracted into an in-memory
+	 * file system under a different name every launch, are indexed in memory only.</p>
+	 */
+	public static void index(Path jar, Path cacheDir) {
+		try {
+			Map<String, IndexedClass> jarIndex = jar.getFileSystem() == FileSystems.getDefault() ? loadCached(jar, cacheDir) : build(jar);
+
+			for (Map.Entry<String, IndexedClass> e : jarIndex.entrySet()) {
+				IndexedClass added = e.getValue();
+
+				classes.compute(e.getKey(), (name, indexed) -> {
+					for (IndexedClass c = indexed; c != null; c = c.next) {
+						if (c.matches(added.size, added.crc)) {
+							return indexed;
+						}
+					}
+
+					return new IndexedClass(added.size, added.crc, added.envEntries, indexed);
+				});
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Failed to index " + jar + " for environment stripping, its classes will be scanned on load", e);
+		}
+	}
+
+	private static Map<String, IndexedClass> loadCached(Path jar, Path cacheDir) throws IOException {
+		Map<String, IndexedClass> jarIndex = null;
+		Path cacheFile = cacheDir.resolve(jar.getFileName() + "-" + Integer.toHexString(jar.toAbsolutePath().toString().hashCode()) + ".idx");
+		long size = Files.size(jar);
+		long lastModified = Files.getLastModifiedTime(jar).toMillis();
+
+		if (Files.exists(cacheFile)) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+				jarIndex = read(in, size, lastModified);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.debug("Failed to read strip index " + cacheFile + ", rebuilding", e);
+			}
+		}
+
+		if (jarIndex == null) {
+			jarIndex = build(jar);
+
+			Files.createDirectories(cacheDir);
+			Path tmpFile = cacheDir.resolve(cacheFile.getFileName() + ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+				write(out, jarIndex, size, lastModified);
+			}
+
+			Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		return jarIndex;
+	}
+
+	private static Map<String, IndexedClass> build(Path jar) throws IOException {
+		Map<String, IndexedClass> jarIndex = new HashMap<>();
+
+		if (jar.getFileSystem() == FileSystems.getDefault()) {
+			try (JarFile jarFile = new JarFile(jar.toFile())) {
+				Enumeration<JarEntry> entries = jarFile.entries();
+
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+
+					if (isIndexedClass(entry)) {
+						try (InputStream stream = jarFile.getInputStream(entry)) {
+							add(jarIndex, entry, new ClassReader(stream));
+						}
+					}
+				}
+			}
+		} else {
+			// JarFile needs a java.io.File
+			try (ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(Files.newInputStream(jar)))) {
+				ZipEntry entry;
+
+				while ((entry = zipStream.getNextEntry()) != null) {
+					if (isIndexedClass(entry)) {
+						// the size and CRC may be stored after the data, they're known once the reader consumed it
+						add(jarIndex, entry, new ClassReader(zipStream));
+					}
+				}
+			}
+		}
+
+		return jarIndex;
+	}
+
+	private static boolean isIndexedClass(ZipEntry entry) {
+		return !entry.isDirectory() && entry.getName().endsWith(".class") && !entry.getName().startsWith("META-INF/");
+	}
+
+	private static void add(Map<String, IndexedClass> jarIndex, ZipEntry entry, ClassReader reader) {
+		if (entry.getSize() < 0 || entry.getCrc() < 0) {
+			return;
+		}
+
+		EnvType[] envTypes = EnvType.values();
+		Entry[] envEntries = new Entry[envTypes.length];
+
+		for (EnvType envType : envTypes) {
+			envEntries[envType.ordinal()] = scan(reader, envType);
+		}
+
+		String entryName = entry.getName();
+		jarIndex.put(entryName.substring(0, entryName.length() - 6).replace('/', '.'), new IndexedClass((int) entry.getSize(), (int) entry.getCrc(), envEntries, null));
+	}
+
+	private static Map<String, IndexedClass> read(DataInputStream in, long size, long lastModified) throws IOException {
+		if (in.readInt() != FORMAT_VERSION || in.readLong() != size || in.readLong() != lastModified) {
+			return null;
+		}
+
+		int envCount = in.readInt();
+		if (envCount != EnvType.values().length) {
+			return null;
+		}
+
+		int classCount = in.readInt();
+		Map<String, IndexedClass> jarIndex = new HashMap<>(classCount * 4 / 3 + 1);
+
+		for (int i = 0; i < classCount; i++) {
+			String name = in.readUTF();
+			int classSize = in.readInt();
+			int crc = in.readInt();
+			Entry[] envEntries = new Entry[envCount];
+
+			for (int j = 0; j < envCount; j++) {
+				envEntries[j] = in.readBoolean() ? Entry.read(in) : Entry.EMPTY;
+			}
+
+			jarIndex.put(name, new IndexedClass(classSize, crc, envEntries, null));
+		}
+
+		return jarIndex;
+	}
+
+	private static void write(DataOutputStream out, Map<String, IndexedClass> jarIndex, long size, long lastModified) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(size);
+		out.writeLong(lastModified);
+		out.writeInt(EnvType.values().length);
+		out.writeInt(jarIndex.size());
+
+		for (Map.Entry<String, IndexedClass> e : jarIndex.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue().size);
+			out.writeInt(e.getValue().crc);
+
+			for (Entry entry : e.getValue().envEntries) {
+				if (entry == Entry.EMPTY) {
+					out.writeBoolean(false);
+				} else {
+					out.writeBoolean(true);
+					entry.write(out);
+				}
+			}
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+		out.writeInt(strings.size());
+
+		for (String s : strings) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static Collection<String> readStrings(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count == 0) {
+			return Collections.emptySet();
+		}
+
+		Collection<String> strings = new HashSet<>(count * 4 / 3 + 1);
+
+		for (int i = 0; i < count; i++) {
+			strings.add(in.readUTF());
+		}
+
+		return strings;
+	}
+}
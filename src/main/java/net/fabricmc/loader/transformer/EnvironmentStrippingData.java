@@ -21,6 +21,7 @@ import net.fabricmc.api.EnvironmentInterface;
 import net.fabricmc.api.EnvironmentInterfaces;
 import org.objectweb.asm.*;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashSet;
 
@@ -31,6 +32,12 @@ public class EnvironmentStrippingData extends ClassVisitor {
 	private static final String ENVIRONMENT_DESCRIPTOR = Type.getDescriptor(Environment.class);
 	private static final String ENVIRONMENT_INTERFACE_DESCRIPTOR = Type.getDescriptor(EnvironmentInterface.class);
 	private static final String ENVIRONMENT_INTERFACES_DESCRIPTOR = Type.getDescriptor(EnvironmentInterfaces.class);
+	private static final byte[][] ANNOTATION_DESCRIPTOR_BYTES = {
+		ENVIRONMENT_DESCRIPTOR.getBytes(StandardCharsets.UTF_8),
+		ENVIRONMENT_INTERFACE_DESCRIPTOR.getBytes(StandardCharsets.UTF_8),
+		ENVIRONMENT_INTERFACES_DESCRIPTOR.getBytes(StandardCharsets.UTF_8)
+	};
+	private static final int CONSTANT_UTF8_TAG = 1;
 
 	private final String envType;
 
@@ -92,6 +99,41 @@ public class EnvironmentStrippingData extends ClassVisitor {
 		return null;
 	}
 
+	/**
+	 * Checks the constant pool for the environment annotation descriptors without visiting the class.
+	 * Annotations are always referenced through a Utf8 constant, so a negative result means there is nothing to strip.
+	 */
+	public static boolean mayContainEnvironmentAnnotations(ClassReader reader) {
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+
+			// the second slot of long and double constants has no offset
+			if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_UTF8_TAG) {
+				continue;
+			}
+
+			int length = reader.readUnsignedShort(offset);
+
+			for (byte[] descriptor : ANNOTATION_DESCRIPTOR_BYTES) {
+				if (length == descriptor.length && utf8Equals(reader, offset + 2, descriptor)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean utf8Equals(ClassReader reader, int offset, byte[] expected) {
+		for (int i = 0; i < expected.length; i++) {
+			if ((byte) reader.readByte(offset + i) != expected[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	public EnvironmentStrippingData(int api, String envType) {
 		super(api);
 		this.envType = envType;
@@ -21,63 +21,102 @@ import net.fabricmc.loader.game.MinecraftGameProvider;
 import net.fabricmc.loader.launch.common.FabricLauncherBase;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
 public final class FabricTransformer {
+	private static final TransformerChain[] chains = new TransformerChain[EnvType.values().length * 2];
+	private static TransformerChain lwChain;
+
 	public static byte[] lwTransformerHook(String name, String transformedName, byte[] bytes) {
-		boolean isDevelopment = FabricLauncherBase.getLauncher().isDevelopment();
-		EnvType envType = FabricLauncherBase.getLauncher().getEnvironmentType();
-
-		byte[] input = MinecraftGameProvider.TRANSFORMER.transform(name);
-		if (input != null) {
-			return FabricTransformer.transform(isDevelopment, envType, name, input);
-		} else {
-			if (bytes != null) {
-				return FabricTransformer.transform(isDevelopment, envType, name, bytes);
-			} else {
-				return null;
-			}
+		TransformerChain chain = lwChain;
+
+		if (chain == null) {
+			boolean isDevelopment = FabricLauncherBase.getLauncher().isDevelopment();
+			EnvType envType = FabricLauncherBase.getLauncher().getEnvironmentType();
+			List<TransformerStage> stages = new ArrayList<>();
+			stages.add((TransformerStage.Bytes) (className, input) -> {
+				byte[] patched = MinecraftGameProvider.TRANSFORMER.transform(className);
+				return patched != null ? patched : input;
+			});
+			stages.addAll(getStages(isDevelopment, envType));
+			lwChain = chain = new TransformerChain(stages);
 		}
 
+		return chain.transform(name, bytes);
 	}
 
 	public static byte[] transform(boolean isDevelopment, EnvType envType, String name, byte[] bytes) {
-		boolean isMinecraftClass = name.startsWith("net.minecraft.") || name.indexOf('.') < 0;
-		boolean transformAccess = isMinecraftClass && FabricLauncherBase.getLauncher().getMappingConfiguration().requiresPackageAccessHack();
-		boolean environmentStrip = !isMinecraftClass || isDevelopment;
+		return getChain(isDevelopment, envType).transform(name, bytes);
+	}
+
+	/**
+	 * @return A chain running the Fabric transformers, shared by all callers in the same environment.
+	 */
+	public static TransformerChain getChain(boolean isDevelopment, EnvType envType) {
+		int index = envType.ordinal() * 2 + (isDevelopment ? 1 : 0);
+		TransformerChain chain = chains[index];
 
-		if (!transformAccess && !environmentStrip) {
-			return bytes;
+		if (chain == null) {
+			chains[index] = chain = new TransformerChain(getStages(isDevelopment, envType));
 		}
 
-		ClassReader classReader = new ClassReader(bytes);
-		ClassWriter classWriter = new ClassWriter(0);
-		ClassVisitor visitor = classWriter;
-		int visitorCount = 0;
+		return chain;
+	}
+
+	/**
+	 * @return The Fabric transformers, to combine with other stages in a {@link TransformerChain}.
+	 */
+	public static List<TransformerStage> getStages(boolean isDevelopment, EnvType envType) {
+		return Arrays.asList(
+			(TransformerStage.Visitor) (name, bytes, reader, next) -> stripEnvironment(isDevelopment, envType, name, bytes, reader, next),
+			(TransformerStage.Visitor) FabricTransformer::fixPackageAccess
+		);
+	}
+
+	private static boolean isMinecraftClass(String name) {
+		return name.startsWith("net.minecraft.") || name.indexOf('.') < 0;
+	}
 
-		if (transformAccess) {
-			visitor = new PackageAccessFixer(Opcodes.ASM7, visitor);
-			visitorCount++;
+	private static EnvironmentStripIndex.Entry getStripData(boolean isDevelopment, EnvType envType, String name, byte[] bytes, Supplier<ClassReader> reader) {
+		if (isMinecraftClass(name) && !isDevelopment) {
+			return EnvironmentStripIndex.Entry.EMPTY;
 		}
 
-		if (environmentStrip) {
-			EnvironmentStrippingData stripData = new EnvironmentStrippingData(Opcodes.ASM7, envType.toString());
-			classReader.accept(stripData, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
-			if (stripData.stripEntireClass()) {
-				throw new RuntimeException("Cannot load class " + name + " in environment type " + envType);
-			}
-			if (!stripData.isEmpty()) {
-				visitor = new ClassStripper(Opcodes.ASM7, visitor, stripData.getStripInterfaces(), stripData.getStripFields(), stripData.getStripMethods());
-				visitorCount++;
-			}
+		EnvironmentStripIndex.Entry stripData = EnvironmentStripIndex.get(name, bytes, envType);
+		return stripData != null ? stripData : EnvironmentStripIndex.scan(reader.get(), envType);
+	}
+
+	/**
+	 * @return Whether the class is stripped entirely in the environment, so loading it fails.
+	 */
+	public static boolean isStrippedEntirely(boolean isDevelopment, EnvType envType, String name, byte[] bytes) {
+		return getStripData(isDevelopment, envType, name, bytes, () -> new ClassReader(bytes)).stripEntireClass();
+	}
+
+	private static ClassVisitor stripEnvironment(boolean isDevelopment, EnvType envType, String name, byte[] bytes, Supplier<ClassReader> reader, ClassVisitor next) {
+		EnvironmentStripIndex.Entry stripData = getStripData(isDevelopment, envType, name, bytes, reader);
+
+		if (stripData.stripEntireClass()) {
+			throw new RuntimeException("Cannot load class " + name + " in environment type " + envType);
 		}
 
-		if (visitorCount <= 0) {
-			return bytes;
+		if (stripData.isEmpty()) {
+			return next;
+		}
+
+		return new ClassStripper(Opcodes.ASM7, next, stripData.getStripInterfaces(), stripData.getStripFields(), stripData.getStripMethods());
+	}
+
+	private static ClassVisitor fixPackageAccess(String name, byte[] bytes, Supplier<ClassReader> reader, ClassVisitor next) {
+		if (!isMinecraftClass(name) || !FabricLauncherBase.getLauncher().getMappingConfiguration().requiresPackageAccessHack()) {
+			return next;
 		}
 
-		classReader.accept(visitor, 0);
-		return classWriter.toByteArray();
+		return new PackageAccessFixer(Opcodes.ASM7, next);
 	}
 }
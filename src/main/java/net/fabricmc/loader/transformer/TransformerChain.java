@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.transformer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Runs a class through an ordered list of {@link TransformerStage}s.
+ *
+ * <p>Consecutive visitor and tree stages share a single parse and a single serialization: visitor stages are
+ * chained into one pipeline, and a tree is only built if a tree stage wants the class. Classes no stage touches
+ * are returned as they are, without ever being parsed if the stages could tell so by name.</p>
+ */
+public final class TransformerChain {
+	private final TransformerStage[] stages;
+
+	public TransformerChain(List<? extends TransformerStage> stages) {
+		this.stages = stages.toArray(new TransformerStage[0]);
+
+		for (TransformerStage stage : this.stages) {
+			if (!(stage instanceof TransformerStage.Bytes) && !(stage instanceof TransformerStage.Visitor) && !(stage instanceof TransformerStage.Tree)) {
+				throw new IllegalArgumentException("Unsupported transformer stage " + stage.getClass().getName());
+			}
+		}
+	}
+
+	/**
+	 * @param bytes The class file, or null if it doesn't exist; only byte stages see classes without a class file.
+	 * @return The transformed class file, or null if the class doesn't exist.
+	 */
+	public byte[] transform(String name, byte[] bytes) {
+		int start = 0;
+
+		while (start < stages.length) {
+			if (stages[start] instanceof TransformerStage.Bytes) {
+				bytes = ((TransformerStage.Bytes) stages[start]).transform(name, bytes);
+				start++;
+				continue;
+			}
+
+			int end = start + 1;
+
+			while (end < stages.length && !(stages[end] instanceof TransformerStage.Bytes)) {
+				end++;
+			}
+
+			if (bytes != null) {
+				bytes = transformAsm(name, bytes, start, end);
+			}
+
+			start = end;
+		}
+
+		return bytes;
+	}
+
+	private byte[] transformAsm(String name, byte[] bytes, int start, int end) {
+		Supplier<ClassReader> reader = new Supplier<ClassReader>() {
+			private ClassReader value;
+
+			@Override
+			public ClassReader get() {
+				if (value == null) {
+					value = new ClassReader(bytes);
+				}
+
+				return value;
+			}
+		};
+
+		List<TransformerStage.Visitor> pending = new ArrayList<>();
+		ClassNode node = null;
+		boolean changed = false;
+
+		for (int i = start; i < end; i++) {
+			if (stages[i] instanceof TransformerStage.Visitor) {
+				pending.add((TransformerStage.Visitor) stages[i]);
+				continue;
+			}
+
+			TransformerStage.Tree stage = (TransformerStage.Tree) stages[i];
+
+			if (!stage.handles(name)) {
+				continue;
+			}
+
+			ClassNode next = new ClassNode();
+			ClassVisitor visitor = wrap(name, bytes, reader, pending, next);
+			changed |= visitor != next;
+
+			if (node == null) {
+				reader.get().accept(visitor, 0);
+			} else if (visitor != next) {
+				node.accept(visitor);
+			} else {
+				next = node;
+			}
+
+			node = next;
+			pending.clear();
+			changed |= stage.transform(name, node);
+		}
+
+		DeferredVisitor tail = new DeferredVisitor();
+		ClassVisitor visitor = wrap(name, bytes, reader, pending, tail);
+
+		if (!changed && visitor == tail) {
+			return bytes;
+		}
+
+		ClassWriter writer;
+
+		if (node == null) {
+			// passing the reader lets ASM copy the constant pool and any unchanged method bodies verbatim
+			writer = new ClassWriter(reader.get(), 0);
+			tail.setTarget(writer);
+			reader.get().accept(visitor, 0);
+		} else {
+			writer = new ClassWriter(0);
+			tail.setTarget(writer);
+			node.accept(visitor);
+		}
+
+		return writer.toByteArray();
+	}
+
+	private static ClassVisitor wrap(String name, byte[] bytes, Supplier<ClassReader> reader, List<TransformerStage.Visitor> stages, ClassVisitor tail) {
+		ClassVisitor visitor = tail;
+
+		for (int i = stages.size() - 1; i >= 0; i--) {
+			visitor = stages.get(i).wrap(name, bytes, reader, visitor);
+		}
+
+		return visitor;
+	}
+
+	/**
+	 * Forwards to a visitor chosen after the stages have been wrapped around it, so the class writer is only created
+	 * once some stage turned out to change the class.
+	 */
+	private static final class DeferredVisitor extends ClassVisitor {
+		DeferredVisitor() {
+			super(Opcodes.ASM7);
+		}
+
+		void setTarget(ClassVisitor target) {
+			this.cv = target;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.transformer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.function.Supplier;
+
+/**
+ * A step of a {@link TransformerChain}. Stages implement one of the nested interfaces, depending on the form they
+ * need the class in.
+ */
+public interface TransformerStage {
+	/**
+	 * A stage working on serialized class files, e.g. one handing them to another bytecode library.
+	 */
+	interface Bytes extends TransformerStage {
+		/**
+		 * @param bytes The class file, or null if the class doesn't exist (yet).
+		 * @return The transformed class file, or null if the class doesn't exist.
+		 */
+		byte[] transform(String name, byte[] bytes);
+	}
+
+	/**
+	 * A stage streaming the class through an ASM visitor.
+	 */
+	interface Visitor extends TransformerStage {
+		/**
+		 * @param bytes The class file as it entered the current run of visitor and tree stages. It must not be modified.
+		 * @param reader Supplies a reader for the same class file, for stages that have to inspect the class up front.
+		 *               It is only created if needed.
+		 * @param next The visitor to pass the transformed class on to.
+		 * @return The visitor to feed the class into, or next to leave the class untouched.
+		 */
+		ClassVisitor wrap(String name, byte[] bytes, Supplier<ClassReader> reader, ClassVisitor next);
+	}
+
+	/**
+	 * A stage working on the class as a tree.
+	 */
+	interface Tree extends TransformerStage {
+		/**
+		 * Cheap check whether the class is of interest, to avoid building trees for it.
+		 */
+		default boolean handles(String name) {
+			return true;
+		}
+
+		/**
+		 * @return Whether the node has been changed.
+		 */
+		boolean transform(String name, ClassNode node);
+	}
+}
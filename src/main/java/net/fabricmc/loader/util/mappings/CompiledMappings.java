@@ -0,0 +1,732 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.util.mappings;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Tiny mappings compiled into a binary table, which is memory mapped and queried in place.
+ *
+ * <p>Every name is stored once, in a string table sorted by {@link String#compareTo}. Each namespace has its own
+ * columns of string indices for classes, fields and methods, plus the row order sorted by those columns, so a lookup
+ * is a handful of binary searches over the buffer and only touches the pages of the namespaces involved. Member
+ * owners and descriptors are stored remapped into every namespace, so members can be looked up from any of them.
+ * Members are additionally sorted by name and descriptor, to look them up when the owner isn't known.</p>
+ *
+ * <p>Rows are shared between namespaces: a row found through one namespace names the same class or member in all
+ * others. Instances are immutable and safe to query from multiple threads.</p>
+ *
+ * <p>The layout of the tables is checked against the size of the data when it is opened, so truncated files are
+ * rejected with an {@link IOException}; the contents of the tables aren't, to leave untouched pages unread.</p>
+ */
+public final class CompiledMappings {
+	private static final int MAGIC = 0x464d4150; // FMAP
+	private static final int FORMAT_VERSION = 2;
+
+	private final ByteBuffer buffer;
+	private final String stamp;
+	private final List<String> namespaces;
+	private final int stringCount;
+	private final int stringOffsets;
+	private final int stringData;
+	private final Table classes;
+	private final Table fields;
+	private final Table methods;
+
+	private CompiledMappings(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		if (buffer.capacity() < 8 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+			throw new IOException("Not a compiled mappings file, or an unsupported version");
+		}
+
+		try {
+			int pos = 8;
+			int stampLength = buffer.getInt(pos);
+			stamp = readUtf8(pos + 4, stampLength);
+			pos = align(pos + 4 + stampLength);
+
+			int namespaceCount = buffer.getInt(pos);
+			// each namespace takes at least 4 bytes
+			checkEnd(pos + 4 + namespaceCount * 4L);
+			String[] namespaces = new String[namespaceCount];
+			pos += 4;
+
+			for (int i = 0; i < namespaces.length; i++) {
+				int length = buffer.getInt(pos);
+				namespaces[i] = readUtf8(pos + 4, length);
+				pos = align(pos + 4 + length);
+			}
+
+			this.namespaces = Collections.unmodifiableList(Arrays.asList(namespaces));
+
+			stringCount = buffer.getInt(pos);
+			stringOffsets = pos + 4;
+			stringData = checkEnd(stringOffsets + (stringCount + 1L) * 4);
+			pos = align(checkEnd(stringData + (long) buffer.getInt(stringOffsets + stringCount * 4)));
+
+			classes = new Table(pos, 1, 1);
+			fields = new Table(classes.end, 3, 2);
+			methods = new Table(fields.end, 3, 2);
+		} catch (RuntimeException e) {
+			// e.g. a negative length, or an offset past the end
+			throw new IOException("Corrupt compiled mappings", e);
+		}
+
+		// the tables end the file, anything else means it was cut short or written by something else
+		if (methods.end != buffer.capacity()) {
+			throw new IOException("Corrupt compiled mappings, expected " + methods.end + " bytes but found " + buffer.capacity());
+		}
+	}
+
+	private int checkEnd(long end) {
+		if (end < 0 || end > buffer.capacity()) {
+			throw new IndexOutOfBoundsException("Offset " + end + " is past the end of the mappings");
+		}
+
+		return (int) end;
+	}
+
+	public static CompiledMappings open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new CompiledMappings(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public static CompiledMappings read(byte[] data) throws IOException {
+		return new CompiledMappings(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * @return The stamp of the source the mappings were compiled from, as passed to {@link #compile}.
+	 */
+	public String getStamp() {
+		return stamp;
+	}
+
+	public List<String> getNamespaces() {
+		return namespaces;
+	}
+
+	/**
+	 * @return The index of the namespace to query the tables with, or -1 if the mappings don't contain it.
+	 */
+	public int getNamespaceId(String namespace) {
+		return namespaces.indexOf(namespace);
+	}
+
+	/**
+	 * @return The class table, names are internal names.
+	 */
+	public Table getClasses() {
+		return classes;
+	}
+
+	public Table getFields() {
+		return fields;
+	}
+
+	public Table getMethods() {
+		return methods;
+	}
+
+	/**
+	 * Maps the class names in a field or method descriptor from one namespace to another.
+	 * @return The mapped descriptor, or the same instance if none of its classes are mapped.
+	 */
+	public String mapDesc(String desc, int from, int to) {
+		int start = desc.indexOf('L');
+		StringBuilder builder = null;
+		int copied = 0;
+
+		while (start >= 0) {
+			int end = desc.indexOf(';', start);
+			int row = classes.find(from, desc.substring(start + 1, end));
+
+			if (row >= 0) {
+				if (builder == null) {
+					builder = new StringBuilder(desc.length() + 16);
+				}
+
+				builder.append(desc, copied, start + 1).append(classes.getName(to, row));
+				copied = end;
+			}
+
+			start = desc.indexOf('L', end);
+		}
+
+		return builder != null ? builder.append(desc, copied, desc.length()).toString() : desc;
+	}
+
+	/**
+	 * Classes or members, one row each. Class tables only have a name column; member tables have the owner, name and
+	 * descriptor.
+	 */
+	public final class Table {
+		private final int size;
+		private final int columns;
+		private final int start;
+		private final int end;
+		private final int stride;
+
+		private Table(int offset, int columns, int indexes) {
+			this.size = buffer.getInt(offset);
+			this.columns = columns;
+			this.stride = columns + indexes;
+			this.start = offset + 4;
+
+			if (size < 0) {
+				throw new IllegalArgumentException("Negative table size " + size);
+			}
+
+			this.end = checkEnd(start + (long) namespaces.size() * stride * size * 4);
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return The row of the class with the given name in the namespace, or -1 if there is none.
+		 */
+		public int find(int namespace, String name) {
+			return find(namespace, name, '/');
+		}
+
+		/**
+		 * @param packageSeparator The separator used in the name, '.' for binary names; no copy of the name is made.
+		 * @return The row of the class with the given name in the namespace, or -1 if there is none.
+		 */
+		public int find(int namespace, String name, char packageSeparator) {
+			if (columns != 1) {
+				throw new UnsupportedOperationException("Members have to be looked up with their owner and descriptor");
+			}
+
+			int nameId = findString(name, packageSeparator);
+			if (nameId < 0) {
+				return -1;
+			}
+
+			int sorted = getColumn(namespace, 1);
+			int low = 0;
+			int high = size - 1;
+
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = Integer.compare(buffer.getInt(getColumn(namespace, 0) + buffer.getInt(sorted + mid * 4) * 4), nameId);
+
+				if (cmp < 0) {
+					low = mid + 1;
+				} else if (cmp > 0) {
+					high = mid - 1;
+				} else {
+					return buffer.getInt(sorted + mid * 4);
+				}
+			}
+
+			return -1;
+		}
+
+		/**
+		 * @return The row of the member with the given owner, name and descriptor in the namespace, or -1 if there is
+		 * none. Members inherited from super types aren't resolved.
+		 */
+		public int find(int namespace, String owner, String name, String desc) {
+			return find(namespace, owner, name, desc, '/');
+		}
+
+		/**
+		 * @param packageSeparator The separator used in the owner, '.' for binary names; the descriptor always uses '/'.
+		 * @return The row of the member with the given owner, name and descriptor in the namespace, or -1 if there is
+		 * none.
+		 */
+		public int find(int namespace, String owner, String name, String desc, char packageSeparator) {
+			if (columns != 3) {
+				throw new UnsupportedOperationException("Classes have to be looked up by their name alone");
+			}
+
+			int ownerId = findString(owner, packageSeparator);
+			int nameId = ownerId >= 0 ? findString(name, '/') : -1;
+			int descId = nameId >= 0 ? findString(desc, '/') : -1;
+
+			if (descId < 0) {
+				return -1;
+			}
+
+			int ownerColumn = getColumn(namespace, 0);
+			int nameColumn = getColumn(namespace, 1);
+			int descColumn = getColumn(namespace, 2);
+			int sorted = getColumn(namespace, 3);
+			int low = 0;
+			int high = size - 1;
+
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int row = buffer.getInt(sorted + mid * 4);
+				int cmp = Integer.compare(buffer.getInt(ownerColumn + row * 4), ownerId);
+
+				if (cmp == 0) {
+					cmp = Integer.compare(buffer.getInt(nameColumn + row * 4), nameId);
+
+					if (cmp == 0) {
+						cmp = Integer.compare(buffer.getInt(descColumn + row * 4), descId);
+					}
+				}
+
+				if (cmp < 0) {
+					low = mid + 1;
+				} else if (cmp > 0) {
+					high = mid - 1;
+				} else {
+					return row;
+				}
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Finds the members with the given name and descriptor in the namespace, whatever their owner.
+		 * @return The rows of the members, empty if there are none.
+		 */
+		public int[] findAll(int namespace, String name, String desc) {
+			checkMembers();
+			int nameId = findString(name, '/');
+			int descId = nameId >= 0 ? findString(desc, '/') : -1;
+
+			if (descId < 0) {
+				return new int[0];
+			}
+
+			int nameColumn = getColumn(namespace, 1);
+			int descColumn = getColumn(namespace, 2);
+			int sorted = getColumn(namespace, 4);
+			int low = 0;
+			int high = size;
+
+			// lower bound of the name and descriptor
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				int row = buffer.getInt(sorted + mid * 4);
+				int cmp = Integer.compare(buffer.getInt(nameColumn + row * 4), nameId);
+
+				if (cmp == 0) {
+					cmp = Integer.compare(buffer.getInt(descColumn + row * 4), descId);
+				}
+
+				if (cmp < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			int count = 0;
+
+			while (low + count < size) {
+				int row = buffer.getInt(sorted + (low + count) * 4);
+
+				if (buffer.getInt(nameColumn + row * 4) != nameId || buffer.getInt(descColumn + row * 4) != descId) {
+					break;
+				}
+
+				count++;
+			}
+
+			int[] rows = new int[count];
+
+			for (int i = 0; i < count; i++) {
+				rows[i] = buffer.getInt(sorted + (low + i) * 4);
+			}
+
+			return rows;
+		}
+
+		/**
+		 * @return The name of the class or member in the namespace.
+		 */
+		public String getName(int namespace, int row) {
+			return getString(buffer.getInt(getColumn(namespace, columns == 1 ? 0 : 1) + row * 4));
+		}
+
+		/**
+		 * @return The name of the class in the namespace, using the given package separator.
+		 */
+		public String getName(int namespace, int row, char packageSeparator) {
+			String name = getName(namespace, row);
+			return packageSeparator != '/' ? name.replace('/', packageSeparator) : name;
+		}
+
+		public String getOwner(int namespace, int row) {
+			checkMembers();
+			return getString(buffer.getInt(getColumn(namespace, 0) + row * 4));
+		}
+
+		public String getDesc(int namespace, int row) {
+			checkMembers();
+			return getString(buffer.getInt(getColumn(namespace, 2) + row * 4));
+		}
+
+		private void checkMembers() {
+			if (columns != 3) {
+				throw new UnsupportedOperationException("Classes have no owner or descriptor");
+			}
+		}
+
+		private int getColumn(int namespace, int column) {
+			if (namespace < 0 || namespace >= namespaces.size()) {
+				throw new IndexOutOfBoundsException("Unknown namespace index " + namespace);
+			}
+
+			return start + (namespace * stride + column) * size * 4;
+		}
+	}
+
+	private int findString(String s, char packageSeparator) {
+		int low = 0;
+		int high = stringCount - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareString(mid, s, packageSeparator);
+
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compares a string of the table to another string, in the order of {@link String#compareTo}, decoding the
+	 * stored UTF-8 as it goes. The other string is read as if its package separators were '/'.
+	 */
+	private int compareString(int id, String s, char packageSeparator) {
+		int pos = stringData + buffer.getInt(stringOffsets + id * 4);
+		int end = stringData + buffer.getInt(stringOffsets + id * 4 + 4);
+		int i = 0;
+
+		while (pos < end) {
+			int b = buffer.get(pos++) & 0xFF;
+			int codePoint;
+
+			if (b < 0x80) {
+				codePoint = b;
+			} else if (b < 0xE0) {
+				codePoint = (b & 0x1F) << 6 | buffer.get(pos++) & 0x3F;
+			} else if (b < 0xF0) {
+				codePoint = (b & 0x0F) << 12 | (buffer.get(pos++) & 0x3F) << 6 | buffer.get(pos++) & 0x3F;
+			} else {
+				codePoint = (b & 0x07) << 18 | (buffer.get(pos++) & 0x3F) << 12 | (buffer.get(pos++) & 0x3F) << 6 | buffer.get(pos++) & 0x3F;
+			}
+
+			if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				if (i >= s.length()) {
+					return 1;
+				}
+
+				char c = s.charAt(i++);
+				int cmp = Character.compare((char) codePoint, c == packageSeparator ? '/' : c);
+				if (cmp != 0) {
+					return cmp;
+				}
+			} else {
+				for (char c : Character.toChars(codePoint)) {
+					if (i >= s.length()) {
+						return 1;
+					}
+
+					int cmp = Character.compare(c, s.charAt(i++));
+					if (cmp != 0) {
+						return cmp;
+					}
+				}
+			}
+		}
+
+		return i < s.length() ? -1 : 0;
+	}
+
+	private String getString(int id) {
+		int offset = buffer.getInt(stringOffsets + id * 4);
+		return readUtf8(stringData + offset, buffer.getInt(stringOffsets + id * 4 + 4) - offset);
+	}
+
+	private String readUtf8(int pos, int length) {
+		checkEnd(pos + (long) length);
+		byte[] bytes = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(pos + i);
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int align(int pos) {
+		return (pos + 3) & ~3;
+	}
+
+	/**
+	 * Compiles mappings in the tiny v1 text format, streaming them from the reader.
+	 * @param stamp Identifies the source of the mappings, returned by {@link #getStamp()}.
+	 */
+	public static void compile(BufferedReader reader, String stamp, OutputStream out) throws IOException {
+		String header = reader.readLine();
+		String[] headerParts = header != null ? header.split("\t") : new String[0];
+
+		if (headerParts.length == 0 || !headerParts[0].equals("v1")) {
+			throw new IOException("Unsupported mappings format: " + header);
+		}
+
+		String[] namespaces = Arrays.copyOfRange(headerParts, 1, headerParts.length);
+		List<String[]> classRows = new ArrayList<>();
+		List<String[]> fieldRows = new ArrayList<>();
+		List<String[]> methodRows = new ArrayList<>();
+		String line;
+
+		while ((line = reader.readLine()) != null) {
+			String[] parts = line.split("\t");
+
+			switch (parts[0]) {
+				case "CLASS":
+					classRows.add(fill(parts, 1, namespaces.length));
+					break;
+				case "FIELD":
+					fieldRows.add(fill(parts, 3, namespaces.length));
+					break;
+				case "METHOD":
+					methodRows.add(fill(parts, 3, namespaces.length));
+					break;
+			}
+		}
+
+		List<Map<String, String>> classMaps = new ArrayList<>();
+		Set<String> strings = new TreeSet<>();
+
+		for (int ns = 0; ns < namespaces.length; ns++) {
+			Map<String, String> classMap = new HashMap<>();
+
+			for (String[] row : classRows) {
+				classMap.put(row[1], row[1 + ns]);
+				strings.add(row[1 + ns]);
+			}
+
+			classMaps.add(classMap);
+		}
+
+		for (List<String[]> rows : Arrays.asList(fieldRows, methodRows)) {
+			for (String[] row : rows) {
+				for (int ns = 0; ns < namespaces.length; ns++) {
+					strings.add(classMaps.get(ns).getOrDefault(row[1], row[1]));
+					strings.add(row[3 + ns]);
+					strings.add(mapDesc(row[2], classMaps.get(ns)));
+				}
+			}
+		}
+
+		Map<String, Integer> ids = new HashMap<>();
+
+		for (String s : strings) {
+			ids.put(s, ids.size());
+		}
+
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+		TableWriter writer = new TableWriter(output);
+		writer.writeInt(MAGIC);
+		writer.writeInt(FORMAT_VERSION);
+		writer.writeString(stamp != null ? stamp : "");
+		writer.writeInt(namespaces.length);
+
+		for (String namespace : namespaces) {
+			writer.writeString(namespace);
+		}
+
+		List<byte[]> encoded = new ArrayList<>(strings.size());
+		int offset = 0;
+		writer.writeInt(strings.size());
+		writer.writeInt(0);
+
+		for (String s : strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			encoded.add(bytes);
+			offset += bytes.length;
+			writer.writeInt(offset);
+		}
+
+		for (byte[] bytes : encoded) {
+			writer.write(bytes);
+		}
+
+		writer.align();
+
+		writer.writeInt(classRows.size());
+
+		for (int ns = 0; ns < namespaces.length; ns++) {
+			int[] names = new int[classRows.size()];
+
+			for (int row = 0; row < names.length; row++) {
+				names[row] = ids.get(classRows.get(row)[1 + ns]);
+			}
+
+			writer.writeInts(names);
+			writer.writeInts(sortRows(names.length, names));
+		}
+
+		for (List<String[]> rows : Arrays.asList(fieldRows, methodRows)) {
+			writer.writeInt(rows.size());
+
+			for (int ns = 0; ns < namespaces.length; ns++) {
+				Map<String, String> classMap = classMaps.get(ns);
+				int[] owners = new int[rows.size()];
+				int[] names = new int[rows.size()];
+				int[] descs = new int[rows.size()];
+
+				for (int row = 0; row < owners.length; row++) {
+					String[] parts = rows.get(row);
+					owners[row] = ids.get(classMap.getOrDefault(parts[1], parts[1]));
+					names[row] = ids.get(parts[3 + ns]);
+					descs[row] = ids.get(mapDesc(parts[2], classMap));
+				}
+
+				writer.writeInts(owners);
+				writer.writeInts(names);
+				writer.writeInts(descs);
+				writer.writeInts(sortRows(owners.length, owners, names, descs));
+				writer.writeInts(sortRows(owners.length, names, descs, owners));
+			}
+		}
+
+		output.flush();
+	}
+
+	/**
+	 * @return The row's columns, with names missing for trailing namespaces replaced by the first namespace's.
+	 */
+	private static String[] fill(String[] parts, int firstName, int namespaceCount) {
+		String[] row = Arrays.copyOf(parts, firstName + namespaceCount);
+
+		for (int i = firstName; i < row.length; i++) {
+			if (row[i] == null || row[i].isEmpty()) {
+				row[i] = parts[firstName];
+			}
+		}
+
+		return row;
+	}
+
+	private static int[] sortRows(int size, int[]... columns) {
+		Integer[] rows = new Integer[size];
+
+		for (int i = 0; i < size; i++) {
+			rows[i] = i;
+		}
+
+		Arrays.sort(rows, (a, b) -> {
+			for (int[] column : columns) {
+				int cmp = Integer.compare(column[a], column[b]);
+
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+
+			return 0;
+		});
+
+		int[] result = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			result[i] = rows[i];
+		}
+
+		return result;
+	}
+
+	private static String mapDesc(String desc, Map<String, String> classMap) {
+		int start = desc.indexOf('L');
+		if (start < 0) {
+			return desc;
+		}
+
+		StringBuilder builder = new StringBuilder(desc.length());
+		int copied = 0;
+
+		while (start >= 0) {
+			int end = desc.indexOf(';', start);
+			String name = desc.substring(start + 1, end);
+			builder.append(desc, copied, start + 1).append(classMap.getOrDefault(name, name));
+			copied = end;
+			start = desc.indexOf('L', end);
+		}
+
+		return builder.append(desc, copied, desc.length()).toString();
+	}
+
+	/**
+	 * Tracks the written length, to keep the tables 4-byte aligned.
+	 */
+	private static final class TableWriter {
+		private final DataOutputStream out;
+		private int pos;
+
+		TableWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void writeInt(int value) throws IOException {
+			out.writeInt(value);
+			pos += 4;
+		}
+
+		void writeInts(int[] values) throws IOException {
+			for (int value : values) {
+				writeInt(value);
+			}
+		}
+
+		void write(byte[] bytes) throws IOException {
+			out.write(bytes);
+			pos += bytes.length;
+		}
+
+		void writeString(String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length);
+			write(bytes);
+			align();
+		}
+
+		void align() throws IOException {
+			while ((pos & 3) != 0) {
+				out.write(0);
+				pos++;
+			}
+		}
+	}
+}
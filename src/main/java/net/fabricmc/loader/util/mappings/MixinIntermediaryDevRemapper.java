@@ -16,47 +16,57 @@
 
 package net.fabricmc.loader.util.mappings;
 
-import net.fabricmc.mappings.*;
-import net.fabricmc.mappings.helpers.mixin.MixinMappingsRemapper;
+import org.spongepowered.asm.mixin.extensibility.IRemapper;
 import org.spongepowered.asm.mixin.transformer.ClassInfo;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
-	private final Set<String> allPossibleClassNames;
-	private final Map<String, Set<String>> nameDescFieldLookup, nameDescMethodLookup;
+public class MixinIntermediaryDevRemapper implements IRemapper {
+	private final CompiledMappings mappings;
+	private final int from, to;
+	// mapped names found by the lookups; misses aren't kept, as mixins applied later may add interfaces to the
+	// ClassInfo hierarchy that provide a mapping
+	final Map<MemberKey, String> methodCache = new ConcurrentHashMap<>();
+	final Map<MemberKey, String> fieldCache = new ConcurrentHashMap<>();
 
-	private static String getNameDescKey(EntryTriple triple) {
-		return triple.getName() + ";;" + triple.getDesc();
-	}
-
-	public MixinIntermediaryDevRemapper(Mappings mappings, String from, String to) {
-		super(mappings, from, to);
+	public MixinIntermediaryDevRemapper(CompiledMappings mappings, String from, String to) {
+		this.mappings = mappings;
+		this.from = mappings.getNamespaceId(from);
+		this.to = mappings.getNamespaceId(to);
 
-		// I sincerely hate that I have to do this.
+		if (this.from < 0 || this.to < 0) {
+			throw new IllegalArgumentException("Unknown namespace: " + (this.from < 0 ? from : to));
+		}
+	}
 
-		nameDescFieldLookup = new HashMap<>();
-		nameDescMethodLookup = new HashMap<>();
-		allPossibleClassNames = new HashSet<>();
+	private boolean isPossibleClassName(String name) {
+		CompiledMappings.Table classes = mappings.getClasses();
+		return classes.find(from, name) >= 0 || classes.find(to, name) >= 0;
+	}
 
-		for (FieldEntry entry : mappings.getFieldEntries()) {
-			EntryTriple tripleFrom = entry.get(from);
-			EntryTriple tripleTo = entry.get(to);
+	/**
+	 * @return The distinct target names of the members with the given name and descriptor, whatever their owner.
+	 */
+	private Set<String> getNameDescTargets(CompiledMappings.Table members, String name, String desc) {
+		int[] rows = members.findAll(from, name, desc);
 
-			nameDescFieldLookup.computeIfAbsent(getNameDescKey(tripleFrom), (a) -> new HashSet<>()).add(tripleTo.getName());
+		if (rows.length == 0) {
+			return Collections.emptySet();
 		}
 
-		for (MethodEntry entry : mappings.getMethodEntries()) {
-			EntryTriple tripleFrom = entry.get(from);
-			EntryTriple tripleTo = entry.get(to);
+		Set<String> values = new HashSet<>();
 
-			nameDescMethodLookup.computeIfAbsent(getNameDescKey(tripleFrom), (a) -> new HashSet<>()).add(tripleTo.getName());
+		for (int row : rows) {
+			values.add(members.getName(to, row));
 		}
 
-		for (ClassEntry entry : mappings.getClassEntries()) {
-			allPossibleClassNames.add(entry.get(from));
-			allPossibleClassNames.add(entry.get(to));
-		}
+		return values;
+	}
+
+	private String lookupMember(CompiledMappings.Table members, String owner, String name, String desc) {
+		int row = members.find(from, owner, name, desc);
+		return row >= 0 ? members.getName(to, row) : name;
 	}
 
 	private void throwAmbiguousLookup(String type, String name, String desc, Set<String> values) {
@@ -72,21 +82,21 @@ public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
 		throw new RuntimeException(builder.toString());
 	}
 
-	private String mapMethodNameInner(String owner, String name, String desc) {
-		String result = super.mapMethodName(owner, name, desc);
+	private String mapMethodNameInner(String owner, String name, String desc, String unmappedDesc) {
+		String result = lookupMember(mappings.getMethods(), owner, name, desc);
 		if (result.equals(name)) {
 			String otherClass = unmap(owner);
-			return super.mapMethodName(otherClass, name, unmapDesc(desc));
+			return lookupMember(mappings.getMethods(), otherClass, name, unmappedDesc);
 		} else {
 			return result;
 		}
 	}
 
-	private String mapFieldNameInner(String owner, String name, String desc) {
-		String result = super.mapFieldName(owner, name, desc);
+	private String mapFieldNameInner(String owner, String name, String desc, String unmappedDesc) {
+		String result = lookupMember(mappings.getFields(), owner, name, desc);
 		if (result.equals(name)) {
 			String otherClass = unmap(owner);
-			return super.mapFieldName(otherClass, name, unmapDesc(desc));
+			return lookupMember(mappings.getFields(), otherClass, name, unmappedDesc);
 		} else {
 			return result;
 		}
@@ -94,9 +104,25 @@ public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
 
 	@Override
 	public String mapMethodName(String owner, String name, String desc) {
+		MemberKey key = new MemberKey(owner, name, desc);
+		String result = methodCache.get(key);
+
+		if (result == null) {
+			// not computeIfAbsent, resolving may recurse into this method
+			result = resolveMethodName(owner, name, desc);
+
+			if (!result.equals(name)) {
+				methodCache.putIfAbsent(key, result);
+			}
+		}
+
+		return result;
+	}
+
+	private String resolveMethodName(String owner, String name, String desc) {
 		// handle unambiguous values early
-		if (owner == null || allPossibleClassNames.contains(owner)) {
-			Set<String> values = nameDescMethodLookup.get(name + ";;" + desc);
+		if (owner == null || isPossibleClassName(owner)) {
+			Set<String> values = getNameDescTargets(mappings.getMethods(), name, desc);
 			if (values != null && !values.isEmpty()) {
 				if (values.size() > 1) {
 					if (owner == null) {
@@ -114,22 +140,34 @@ public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
 				if (!unmapOwner.equals(owner) || !unmapDesc.equals(desc)) {
 					return mapMethodName(unmapOwner, name, unmapDesc);
 				} else {
-					// take advantage of the fact allPossibleClassNames
-					// and nameDescLookup cover all sets; if none are present,
+					// take advantage of the fact the class and name/descriptor
+					// lookups cover both namespaces; if none are present,
 					// we don't have a mapping for it.
 					return name;
 				}
 			}
 		}
 
-		LinkedList<ClassInfo> classInfos = new LinkedList<>();
-		classInfos.add(ClassInfo.forName(owner));
+		ClassInfo start = ClassInfo.forName(owner);
+		if (start == null) {
+			return name;
+		}
+
+		String unmappedDesc = unmapDesc(desc);
+		Deque<ClassInfo> classInfos = new ArrayDeque<>();
+		Set<ClassInfo> visited = new HashSet<>();
+		classInfos.add(start);
 
 		while (!classInfos.isEmpty()) {
 			ClassInfo c = classInfos.remove();
+			if (!visited.add(c)) {
+				// interfaces reached through several paths
+				continue;
+			}
+
 			String ownerO = unmap(c.getName());
 			String s;
-			if (!(s = mapMethodNameInner(ownerO, name, desc)).equals(name)) {
+			if (!(s = mapMethodNameInner(ownerO, name, desc, unmappedDesc)).equals(name)) {
 				return s;
 			}
 
@@ -157,9 +195,25 @@ public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
 
 	@Override
 	public String mapFieldName(String owner, String name, String desc) {
+		MemberKey key = new MemberKey(owner, name, desc);
+		String result = fieldCache.get(key);
+
+		if (result == null) {
+			// not computeIfAbsent, resolving may recurse into this method
+			result = resolveFieldName(owner, name, desc);
+
+			if (!result.equals(name)) {
+				fieldCache.putIfAbsent(key, result);
+			}
+		}
+
+		return result;
+	}
+
+	private String resolveFieldName(String owner, String name, String desc) {
 		// handle unambiguous values early
-		if (owner == null || allPossibleClassNames.contains(owner)) {
-			Set<String> values = nameDescFieldLookup.get(name + ";;" + desc);
+		if (owner == null || isPossibleClassName(owner)) {
+			Set<String> values = getNameDescTargets(mappings.getFields(), name, desc);
 			if (values != null && !values.isEmpty()) {
 				if (values.size() > 1) {
 					if (owner == null) {
@@ -177,8 +231,8 @@ public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
 				if (!unmapOwner.equals(owner) || !unmapDesc.equals(desc)) {
 					return mapFieldName(unmapOwner, name, unmapDesc);
 				} else {
-					// take advantage of the fact allPossibleClassNames
-					// and nameDescLookup cover all sets; if none are present,
+					// take advantage of the fact the class and name/descriptor
+					// lookups cover both namespaces; if none are present,
 					// we don't have a mapping for it.
 					return name;
 				}
@@ -186,11 +240,12 @@ public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
 		}
 
 		ClassInfo c = ClassInfo.forName(map(owner));
+		String unmappedDesc = unmapDesc(desc);
 
 		while (c != null) {
 			String nextOwner = unmap(c.getName());
 			String s;
-			if (!(s = mapFieldNameInner(nextOwner, name, desc)).equals(name)) {
+			if (!(s = mapFieldNameInner(nextOwner, name, desc, unmappedDesc)).equals(name)) {
 				return s;
 			}
 
@@ -203,4 +258,58 @@ public class MixinIntermediaryDevRemapper extends MixinMappingsRemapper {
 
 		return name;
 	}
+
+	@Override
+	public String map(String typeName) {
+		int row = mappings.getClasses().find(from, typeName);
+		return row >= 0 ? mappings.getClasses().getName(to, row) : typeName;
+	}
+
+	@Override
+	public String unmap(String typeName) {
+		int row = mappings.getClasses().find(to, typeName);
+		return row >= 0 ? mappings.getClasses().getName(from, row) : typeName;
+	}
+
+	@Override
+	public String mapDesc(String desc) {
+		return mappings.mapDesc(desc, from, to);
+	}
+
+	@Override
+	public String unmapDesc(String desc) {
+		return mappings.mapDesc(desc, to, from);
+	}
+
+	/**
+	 * Identifies a member by its owner, name and descriptor without concatenating them.
+	 */
+	private static final class MemberKey {
+		private final String owner;
+		private final String name;
+		private final String desc;
+		private final int hash;
+
+		MemberKey(String owner, String name, String desc) {
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+			this.hash = (Objects.hashCode(owner) * 31 + name.hashCode()) * 31 + Objects.hashCode(desc);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MemberKey)) {
+				return false;
+			}
+
+			MemberKey other = (MemberKey) obj;
+			return hash == other.hash && name.equals(other.name) && Objects.equals(owner, other.owner) && Objects.equals(desc, other.desc);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
 }
@@ -42,4 +42,33 @@ public class TinyRemapperMappingsHelper {
 			}
 		};
 	}
+
+	public static IMappingProvider create(CompiledMappings mappings, String from, String to) {
+		int fromId = mappings.getNamespaceId(from);
+		int toId = mappings.getNamespaceId(to);
+
+		if (fromId < 0 || toId < 0) {
+			throw new IllegalArgumentException("Unknown namespace: " + (fromId < 0 ? from : to));
+		}
+
+		return (classMap, fieldMap, methodMap) -> {
+			CompiledMappings.Table classes = mappings.getClasses();
+
+			for (int row = 0; row < classes.size(); row++) {
+				classMap.put(classes.getName(fromId, row), classes.getName(toId, row));
+			}
+
+			CompiledMappings.Table fields = mappings.getFields();
+
+			for (int row = 0; row < fields.size(); row++) {
+				fieldMap.put(fields.getOwner(fromId, row) + "/" + MemberInstance.getFieldId(fields.getName(fromId, row), fields.getDesc(fromId, row)), fields.getName(toId, row));
+			}
+
+			CompiledMappings.Table methods = mappings.getMethods();
+
+			for (int row = 0; row < methods.size(); row++) {
+				methodMap.put(methods.getOwner(fromId, row) + "/" + MemberInstance.getMethodId(methods.getName(fromId, row), methods.getDesc(fromId, row)), methods.getName(toId, row));
+			}
+		};
+	}
 }
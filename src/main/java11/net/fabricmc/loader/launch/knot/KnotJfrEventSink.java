@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits a JFR event for every class Knot defines. Loaded reflectively by {@link KnotClassLoadStats} on JDK 11+.
+ */
+final class KnotJfrEventSink implements KnotClassLoadStats.EventSink {
+	@Name("net.fabricmc.loader.KnotClassLoad")
+	@Label("Knot Class Load")
+	@Category("Fabric Loader")
+	@Description("A class read, transformed and defined by Knot")
+	@StackTrace(false)
+	static final class ClassLoadEvent extends Event {
+		@Label("Class")
+		String className;
+
+		@Label("Mod")
+		String modId;
+
+		@Label("Input Size")
+		@DataAmount
+		int inputSize;
+
+		@Label("Output Size")
+		@DataAmount
+		int outputSize;
+
+		@Label("Read Time")
+		@Timespan
+		long readTime;
+
+		@Label("Entrypoint Transform Time")
+		@Timespan
+		long entrypointTime;
+
+		@Label("Fabric Transform Time")
+		@Timespan
+		long transformTime;
+
+		@Label("Mixin Time")
+		@Timespan
+		long mixinTime;
+
+		@Label("Define Time")
+		@Timespan
+		long defineTime;
+	}
+
+	private static final EventType TYPE = EventType.getEventType(ClassLoadEvent.class);
+
+	@Override
+	public Object begin() {
+		if (!TYPE.isEnabled()) {
+			return null;
+		}
+
+		ClassLoadEvent event = new ClassLoadEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void commit(Object handle, KnotClassLoadStats.Sample sample) {
+		ClassLoadEvent event = (ClassLoadEvent) handle;
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.className = sample.name;
+			event.modId = sample.modId;
+			event.inputSize = sample.inputSize;
+			event.outputSize = sample.outputSize;
+			event.readTime = sample.stageNanos[KnotClassLoadStats.Stage.READ.ordinal()];
+			event.entrypointTime = sample.stageNanos[KnotClassLoadStats.Stage.ENTRYPOINT.ordinal()];
+			event.transformTime = sample.stageNanos[KnotClassLoadStats.Stage.TRANSFORM.ordinal()];
+			event.mixinTime = sample.stageNanos[KnotClassLoadStats.Stage.MIXIN.ordinal()];
+			event.defineTime = sample.stageNanos[KnotClassLoadStats.Stage.DEFINE.ordinal()];
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Resolves the classes on the stack with {@link StackWalker}. Loaded reflectively by {@link KnotClassLoadTracer} on
+ * JDK 11+, in place of the deprecated SecurityManager based resolver.
+ */
+final class KnotStackWalkerCallerResolver implements KnotClassLoadTracer.CallerResolver {
+	private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+	@Override
+	public <T> T walk(Function<Stream<Class<?>>, T> function) {
+		return WALKER.walk((frames) -> function.apply(frames.map(StackWalker.StackFrame::getDeclaringClass)));
+	}
+}
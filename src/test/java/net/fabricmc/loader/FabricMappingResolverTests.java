@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader;
+
+import net.fabricmc.loader.api.MappingResolver;
+import net.fabricmc.loader.util.mappings.CompiledMappings;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collection;
+
+public class FabricMappingResolverTests {
+	private static final String MAPPINGS = String.join("\n",
+		"v1\tofficial\tintermediary\tnamed",
+		"CLASS\ta\tnet/minecraft/class_1\tnet/minecraft/block/Block",
+		"CLASS\tb\tnet/minecraft/class_2\tnet/minecraft/world/World",
+		"FIELD\ta\tLb;\td\tfield_1\tworld",
+		"FIELD\tb\tI\td\tfield_2\tseed",
+		"METHOD\ta\t(Lb;)La;\te\tmethod_1\tupdate",
+		"METHOD\tb\t(Lb;)La;\te\tmethod_2\tgetBlock",
+		"");
+
+	/**
+	 * Only implements the single lookups, leaving the batch methods to the interface defaults.
+	 */
+	private static final class DefaultsResolver implements MappingResolver {
+		private final MappingResolver resolver;
+
+		DefaultsResolver(MappingResolver resolver) {
+			this.resolver = resolver;
+		}
+
+		@Override
+		public Collection<String> getNamespaces() {
+			return resolver.getNamespaces();
+		}
+
+		@Override
+		public String getCurrentRuntimeNamespace() {
+			return resolver.getCurrentRuntimeNamespace();
+		}
+
+		@Override
+		public String mapClassName(String namespace, String className) {
+			return resolver.mapClassName(namespace, className);
+		}
+
+		@Override
+		public String unmapClassName(String targetNamespace, String className) {
+			return resolver.unmapClassName(targetNamespace, className);
+		}
+
+		@Override
+		public String mapFieldName(String namespace, String owner, String name, String descriptor) {
+			return resolver.mapFieldName(namespace, owner, name, descriptor);
+		}
+
+		@Override
+		public String mapMethodName(String namespace, String owner, String name, String descriptor) {
+			return resolver.mapMethodName(namespace, owner, name, descriptor);
+		}
+	}
+
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static void testThrows(Runnable runnable) {
+		try {
+			runnable.run();
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+
+		throw new RuntimeException("Test failed!");
+	}
+
+	public static void main(String[] args) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompiledMappings.compile(new BufferedReader(new StringReader(MAPPINGS)), "test", out);
+		CompiledMappings mappings = CompiledMappings.read(out.toByteArray());
+
+		MappingResolver resolver = new FabricMappingResolver(() -> mappings, "named");
+		MappingResolver defaults = new DefaultsResolver(resolver);
+
+		// Test: batch class lookups match single lookups and the interface defaults, unmapped names pass through.
+		String[] classes = { "net.minecraft.class_1", "net.minecraft.class_2", "java.lang.String" };
+		String[] mappedClasses = resolver.mapClassNames("intermediary", classes);
+		testTrue(Arrays.equals(mappedClasses, new String[] { "net.minecraft.block.Block", "net.minecraft.world.World", "java.lang.String" }));
+		testTrue(Arrays.equals(mappedClasses, defaults.mapClassNames("intermediary", classes)));
+
+		for (int i = 0; i < classes.length; i++) {
+			testTrue(mappedClasses[i].equals(resolver.mapClassName("intermediary", classes[i])));
+		}
+
+		// Test: batch member lookups use the owner and descriptor of each entry.
+		String[] owners = { "net.minecraft.class_1", "net.minecraft.class_2", "net.minecraft.class_2" };
+		String[] fieldNames = { "field_1", "field_2", "field_1" };
+		String[] fieldDescs = { "Lnet/minecraft/class_2;", "I", "Lnet/minecraft/class_2;" };
+		String[] mappedFields = resolver.mapFieldNames("intermediary", owners, fieldNames, fieldDescs);
+		testTrue(Arrays.equals(mappedFields, new String[] { "world", "seed", "field_1" }));
+		testTrue(Arrays.equals(mappedFields, defaults.mapFieldNames("intermediary", owners, fieldNames, fieldDescs)));
+
+		String[] methodNames = { "method_1", "method_2", "method_1" };
+		String[] methodDescs = { "(Lnet/minecraft/class_2;)Lnet/minecraft/class_1;", "(Lnet/minecraft/class_2;)Lnet/minecraft/class_1;", "()V" };
+		String[] mappedMethods = resolver.mapMethodNames("intermediary", owners, methodNames, methodDescs);
+		testTrue(Arrays.equals(mappedMethods, new String[] { "update", "getBlock", "method_1" }));
+		testTrue(Arrays.equals(mappedMethods, defaults.mapMethodNames("intermediary", owners, methodNames, methodDescs)));
+
+		// Test: descriptors are mapped class by class, including arrays, and primitives are left alone.
+		String desc = "([Lnet/minecraft/class_1;ILjava/lang/String;)Lnet/minecraft/class_2;";
+		String mappedDesc = "([Lnet/minecraft/block/Block;ILjava/lang/String;)Lnet/minecraft/world/World;";
+		testTrue(resolver.mapDescriptor("intermediary", desc).equals(mappedDesc));
+		testTrue(defaults.mapDescriptor("intermediary", desc).equals(mappedDesc));
+		testTrue(resolver.mapDescriptor("intermediary", "(IJ)V").equals("(IJ)V"));
+
+		// Test: mismatched lengths, unknown namespaces and internal names are rejected.
+		testThrows(() -> resolver.mapFieldNames("intermediary", owners, fieldNames, new String[0]));
+		testThrows(() -> resolver.mapMethodNames("intermediary", new String[1], methodNames, methodDescs));
+		testThrows(() -> resolver.mapClassNames("unknown", classes));
+		testThrows(() -> resolver.mapClassNames("intermediary", new String[] { "net/minecraft/class_1" }));
+		testThrows(() -> resolver.mapFieldNames("intermediary", new String[] { "net/minecraft/class_1" }, new String[] { "field_1" }, new String[] { "I" }));
+	}
+}
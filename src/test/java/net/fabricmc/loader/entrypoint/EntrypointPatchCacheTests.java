@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.entrypoint;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.launch.common.FabricLauncher;
+import net.fabricmc.loader.launch.common.MappingConfiguration;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class EntrypointPatchCacheTests {
+	private static class TestLauncher implements FabricLauncher {
+		final Map<String, byte[]> classes = new HashMap<>();
+
+		@Override
+		public MappingConfiguration getMappingConfiguration() {
+			return null;
+		}
+
+		@Override
+		public void propose(URL url) {
+		}
+
+		@Override
+		public EnvType getEnvironmentType() {
+			return EnvType.CLIENT;
+		}
+
+		@Override
+		public boolean isClassLoaded(String name) {
+			return false;
+		}
+
+		@Override
+		public InputStream getResourceAsStream(String name) {
+			return null;
+		}
+
+		@Override
+		public ClassLoader getTargetClassLoader() {
+			return null;
+		}
+
+		@Override
+		public byte[] getClassByteArray(String name) {
+			return classes.get(name);
+		}
+
+		@Override
+		public boolean isDevelopment() {
+			return false;
+		}
+
+		@Override
+		public String getEntrypoint() {
+			return "net.minecraft.client.main.Main";
+		}
+
+		@Override
+		public String getTargetNamespace() {
+			return "intermediary";
+		}
+
+		@Override
+		public Collection<URL> getLoadTimeDependencies() {
+			return Collections.emptyList();
+		}
+	}
+
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void save(Path file, String key, TestLauncher launcher) throws Exception {
+		EntrypointPatchCache cache = new EntrypointPatchCache(file, key);
+
+		for (String name : new String[] { "a", "b", "missing" }) {
+			cache.recordInput(name, launcher.getClassByteArray(name));
+		}
+
+		Map<String, byte[]> patched = new HashMap<>();
+		patched.put("a", bytes("patched a"));
+		cache.save(patched, "applet.Main");
+	}
+
+	private static String load(Path file, String key, TestLauncher launcher, Map<String, byte[]> patched) {
+		return new EntrypointPatchCache(file, key).load(launcher, patched);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempDirectory("entrypointPatches").resolve("entrypointPatches.bin");
+		TestLauncher launcher = new TestLauncher();
+		launcher.classes.put("a", bytes("class a"));
+		launcher.classes.put("b", bytes("class b"));
+
+		// Test: nothing is loaded before the cache has been written.
+		testTrue(load(file, "key", launcher, new HashMap<>()) == null);
+
+		// Test: unchanged inputs reuse the stored output.
+		save(file, "key", launcher);
+		Map<String, byte[]> patched = new HashMap<>();
+		testTrue("applet.Main".equals(load(file, "key", launcher, patched)));
+		testTrue(patched.size() == 1 && new String(patched.get("a"), StandardCharsets.UTF_8).equals("patched a"));
+
+		// Test: a different loader JAR or launch environment invalidates the cache.
+		testTrue(load(file, "other key", launcher, new HashMap<>()) == null);
+
+		// Test: a changed input class invalidates the cache.
+		launcher.classes.put("b", bytes("class b, changed"));
+		testTrue(load(file, "key", launcher, new HashMap<>()) == null);
+		launcher.classes.put("b", bytes("class b"));
+		testTrue(load(file, "key", launcher, new HashMap<>()) != null);
+
+		// Test: an input class that was absent and now exists invalidates the cache, as does one that disappears.
+		launcher.classes.put("missing", bytes("class missing"));
+		testTrue(load(file, "key", launcher, new HashMap<>()) == null);
+		launcher.classes.remove("missing");
+		launcher.classes.remove("a");
+		testTrue(load(file, "key", launcher, new HashMap<>()) == null);
+		launcher.classes.put("a", bytes("class a"));
+
+		// Test: a truncated file is a miss, without leaving partial output behind.
+		byte[] data = Files.readAllBytes(file);
+
+		try (OutputStream out = Files.newOutputStream(file)) {
+			out.write(data, 0, data.length - 4);
+		}
+
+		patched = new HashMap<>();
+		testTrue(load(file, "key", launcher, patched) == null);
+		testTrue(patched.isEmpty());
+
+		// Test: corrupt length fields are a miss too, rather than a failed allocation.
+		for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+			corruptOutputLength(file, launcher, length);
+			patched = new HashMap<>();
+			testTrue(load(file, "key", launcher, patched) == null);
+			testTrue(patched.isEmpty());
+		}
+	}
+
+	private static void corruptOutputLength(Path file, TestLauncher launcher, int length) throws Exception {
+		save(file, "key", launcher);
+		byte[] data = Files.readAllBytes(file);
+		// the last entry is the patched class "a": its length field sits right before its bytes
+		int pos = data.length - bytes("patched a").length - 4;
+		ByteBuffer.wrap(data).putInt(pos, length);
+		Files.write(file, data);
+	}
+}
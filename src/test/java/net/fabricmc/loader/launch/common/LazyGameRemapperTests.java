@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.common;
+
+import net.fabricmc.loader.util.mappings.CompiledMappings;
+import net.fabricmc.loader.util.mappings.TinyRemapperMappingsHelper;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.objectweb.asm.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class LazyGameRemapperTests {
+	private static final String MAPPINGS = String.join("\n",
+		"v1\tofficial\tintermediary",
+		"CLASS\ta/A\tpkg/Base",
+		"CLASS\ta/B\tpkg/Sub",
+		"CLASS\tb/C\tother/Other",
+		"METHOD\ta/A\t()V\tm\tpublicMethod",
+		"METHOD\ta/A\t()V\tp\tprivateMethod",
+		"METHOD\ta/A\t()V\ts\tstaticMethod",
+		"METHOD\ta/A\t()V\tq\tpackageMethod",
+		"FIELD\ta/A\tI\tf\tfield",
+		"FIELD\ta/A\tI\tc\tconstant",
+		"");
+
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static byte[] createClass(String name, String superName, int[] methodAccess, boolean declareFields) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+
+		if (declareFields) {
+			writer.visitField(Opcodes.ACC_PUBLIC, "f", "I", null, null).visitEnd();
+			writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "c", "I", null, null).visitEnd();
+		}
+
+		String[] methodNames = { "m", "p", "s", "q" };
+
+		for (int i = 0; i < methodNames.length; i++) {
+			MethodVisitor method = writer.visitMethod(methodAccess[i], methodNames[i], "()V", null, null);
+			method.visitCode();
+
+			// refer to the members through this class, resolving them is up to the remapper
+			if ((methodAccess[i] & Opcodes.ACC_STATIC) == 0) {
+				method.visitVarInsn(Opcodes.ALOAD, 0);
+				method.visitFieldInsn(Opcodes.GETFIELD, name, "f", "I");
+				method.visitInsn(Opcodes.POP);
+				method.visitVarInsn(Opcodes.ALOAD, 0);
+				method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "m", "()V", false);
+			}
+
+			method.visitFieldInsn(Opcodes.GETSTATIC, name, "c", "I");
+			method.visitInsn(Opcodes.POP);
+			method.visitInsn(Opcodes.RETURN);
+			method.visitMaxs(0, 0);
+			method.visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static Path createJar(Path dir) throws IOException {
+		int[] baseAccess = { Opcodes.ACC_PUBLIC, Opcodes.ACC_PRIVATE, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, 0 };
+		int[] subAccess = { Opcodes.ACC_PUBLIC, Opcodes.ACC_PRIVATE, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, 0 };
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("a/A", createClass("a/A", "java/lang/Object", baseAccess, true));
+		// same package, so its package-private q overrides the one of a/A
+		classes.put("a/B", createClass("a/B", "a/A", subAccess, false));
+		// other package, so its package-private q doesn't
+		classes.put("b/C", createClass("b/C", "a/A", subAccess, false));
+
+		Path jar = dir.resolve("game.jar");
+
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+				out.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+				out.write(entry.getValue());
+				out.closeEntry();
+			}
+		}
+
+		return jar;
+	}
+
+	/**
+	 * Lists the names a class declares and refers to, independent of how the class file is laid out.
+	 */
+	private static List<String> describe(byte[] data) {
+		List<String> lines = new ArrayList<>();
+
+		new ClassReader(data).accept(new ClassVisitor(Opcodes.ASM7) {
+			@Override
+			public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+				lines.add("class " + name + " extends " + superName);
+			}
+
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				lines.add("field " + name + " " + descriptor);
+				return null;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				String method = name + descriptor;
+				lines.add("method " + method);
+
+				return new MethodVisitor(Opcodes.ASM7) {
+					@Override
+					public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+						lines.add(method + " uses field " + owner + "." + name + " " + descriptor);
+					}
+
+					@Override
+					public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+						lines.add(method + " calls " + owner + "." + name + descriptor);
+					}
+				};
+			}
+		}, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+		Collections.sort(lines);
+		return lines;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("lazyRemap");
+		Path jar = createJar(dir);
+
+		ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+		CompiledMappings.compile(new BufferedReader(new StringReader(MAPPINGS)), "test", compiled);
+		CompiledMappings mappings = CompiledMappings.read(compiled.toByteArray());
+
+		Map<String, byte[]> eager = new HashMap<>();
+		TinyRemapper remapper = TinyRemapper.newRemapper()
+			.withMappings(TinyRemapperMappingsHelper.create(mappings, "official", "intermediary"))
+			.build();
+
+		try {
+			remapper.readInputs(jar);
+			remapper.apply((name, data) -> eager.put(name, data));
+		} finally {
+			remapper.finish();
+		}
+
+		LazyGameRemapper lazy = new LazyGameRemapper(mappings, "official", "intermediary", jar, dir.resolve("classes"));
+
+		// Test: every class comes out of the lazy remapper the way the whole JAR remapper produces it.
+		testTrue(eager.size() == 3);
+
+		for (Map.Entry<String, byte[]> entry : eager.entrySet()) {
+			byte[] data = lazy.getClassBytes(entry.getKey().replace('/', '.'));
+			testTrue(data != null);
+			testTrue(describe(data).equals(describe(entry.getValue())));
+		}
+
+		// Test: overrides take the name of the method they override, private, static and cross-package methods don't.
+		List<String> sub = describe(lazy.getClassBytes("pkg.Sub"));
+		testTrue(sub.contains("method publicMethod()V"));
+		testTrue(sub.contains("method packageMethod()V"));
+		testTrue(sub.contains("method p()V"));
+		testTrue(sub.contains("method s()V"));
+		testTrue(sub.contains("publicMethod()V uses field pkg/Sub.field I"));
+		testTrue(sub.contains("s()V uses field pkg/Sub.constant I"));
+
+		List<String> other = describe(lazy.getClassBytes("other.Other"));
+		testTrue(other.contains("method publicMethod()V"));
+		testTrue(other.contains("method q()V"));
+
+		// Test: cached classes are served as they were remapped, and classes outside the JAR aren't served at all.
+		testTrue(Arrays.equals(lazy.getClassBytes("pkg.Sub"), lazy.getClassBytes("pkg.Sub")));
+		testTrue(lazy.getClassBytes("a.A") == null);
+		testTrue(lazy.getClassBytes("java.lang.Object") == null);
+	}
+}
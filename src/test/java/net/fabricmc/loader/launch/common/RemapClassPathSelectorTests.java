@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.common;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class RemapClassPathSelectorTests {
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static byte[] createClass(String name, String superName, String[] interfaces, String castTo) {
+		ClassWriter writer = new ClassWriter(0);
+		int access = Opcodes.ACC_PUBLIC | (superName == null ? Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT : 0);
+		writer.visit(Opcodes.V1_8, access, name, null, superName != null ? superName : "java/lang/Object", interfaces);
+
+		if (castTo != null) {
+			MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "cast", "(Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+			method.visitCode();
+			method.visitVarInsn(Opcodes.ALOAD, 0);
+			method.visitTypeInsn(Opcodes.CHECKCAST, castTo);
+			method.visitInsn(Opcodes.ARETURN);
+			method.visitMaxs(1, 1);
+			method.visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static Path writeJar(Path dir, String fileName, String name, byte[] data) throws IOException {
+		Path jar = dir.resolve(fileName);
+
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			out.putNextEntry(new ZipEntry(name + ".class"));
+			out.write(data);
+			out.closeEntry();
+		}
+
+		return jar;
+	}
+
+	private static Path writeDirectory(Path dir, String dirName, String name, byte[] data) throws IOException {
+		Path root = dir.resolve(dirName);
+		Path file = root.resolve(name + ".class");
+		Files.createDirectories(file.getParent());
+		Files.write(file, data);
+		return root;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("remapClassPath");
+
+		// input.Main extends lib.Base, which extends lib.Middle (a directory entry), which implements lib.Api;
+		// it also casts to lib.Element[], and nothing refers to lib.Unrelated.
+		Path input = writeJar(dir, "input.jar", "input/Main", createClass("input/Main", "lib/Base", null, "[Llib/Element;"));
+		Path base = writeJar(dir, "base.jar", "lib/Base", createClass("lib/Base", "lib/Middle", null, null));
+		Path middle = writeDirectory(dir, "middle", "lib/Middle", createClass("lib/Middle", "java/lang/Object", new String[] { "lib/Api" }, null));
+		Path api = writeJar(dir, "api.jar", "lib/Api", createClass("lib/Api", null, null, null));
+		Path element = writeJar(dir, "element.jar", "lib/Element", createClass("lib/Element", "java/lang/Object", null, null));
+		Path unrelated = writeJar(dir, "unrelated.jar", "lib/Unrelated", createClass("lib/Unrelated", "lib/Base", null, null));
+
+		// Test: direct references, array element types and transitive super types are selected, nothing else.
+		Set<Path> selected = RemapClassPathSelector.select(input, Arrays.asList(unrelated, api, element, middle, base));
+		testTrue(selected.size() == 4);
+		testTrue(selected.contains(base));
+		testTrue(selected.contains(middle));
+		testTrue(selected.contains(api));
+		testTrue(selected.contains(element));
+		testTrue(!selected.contains(unrelated));
+
+		// Test: a super type missing from the class path ends the walk instead of failing.
+		selected = RemapClassPathSelector.select(input, Arrays.asList(base, unrelated));
+		testTrue(selected.size() == 1 && selected.contains(base));
+	}
+}
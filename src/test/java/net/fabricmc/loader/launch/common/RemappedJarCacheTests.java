@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.common;
+
+import java.io.Closeable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class RemappedJarCacheTests {
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static Path createEntry(RemappedJarCache cache, String key, long lastModified) throws Exception {
+		Path entry = cache.getEntry(key);
+		Files.createDirectories(entry);
+		Files.write(entry.resolve("Test.class"), new byte[] { 1, 2, 3 });
+		Files.setLastModifiedTime(entry, FileTime.fromMillis(lastModified));
+		return entry;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("remappedJars");
+		Path inputJar = Files.write(dir.resolve("input.jar"), new byte[] { 4, 5, 6 });
+		RemappedJarCache cache = new RemappedJarCache(dir, "intermediary-input-classes", "");
+
+		// Test: nothing is current before the first commit.
+		testTrue(cache.findCurrent(inputJar, "mappings") == null);
+
+		// Test: a committed entry is found by the stamps of its inputs.
+		Path leased = createEntry(cache, "0000000000000001", System.currentTimeMillis());
+
+		try (Closeable lock = cache.lock()) {
+			cache.commit("0000000000000001", inputJar, "mappings");
+		}
+
+		testTrue(leased.equals(cache.findCurrent(inputJar, "mappings")));
+		testTrue(cache.findCurrent(inputJar, "other mappings") == null);
+
+		// Test: the least recently used entries beyond the limit are evicted, except the ones in use.
+		Files.setLastModifiedTime(leased, FileTime.fromMillis(1000));
+		Path oldest = createEntry(cache, "0000000000000002", 2000);
+		Path older = createEntry(cache, "0000000000000003", 3000);
+		Path recent = createEntry(cache, "0000000000000004", 4000);
+		Path current = createEntry(cache, "0000000000000005", System.currentTimeMillis());
+
+		try (Closeable lock = cache.lock()) {
+			cache.commit("0000000000000005", inputJar, "other mappings");
+		}
+
+		testTrue(Files.isDirectory(current));
+		testTrue(Files.isDirectory(recent));
+		testTrue(Files.isDirectory(older));
+		testTrue(Files.exists(leased.resolve("Test.class")));
+		testTrue(!Files.exists(oldest));
+
+		// Test: an entry that disappeared isn't returned.
+		testTrue(current.equals(cache.findCurrent(inputJar, "other mappings")));
+		Files.delete(current.resolve("Test.class"));
+		Files.delete(current);
+		testTrue(cache.findCurrent(inputJar, "other mappings") == null);
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.launch.knot;
+
+public class KnotClassLoadStatsTests {
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static void spin(long nanos) {
+		long end = System.nanoTime() + nanos;
+
+		while (System.nanoTime() < end) {
+			// busy wait, sleeping can overshoot by a lot
+		}
+	}
+
+	public static void main(String[] args) {
+		long nestedNanos = 50_000_000L;
+
+		// Test: time spent loading a class nested in another's Mixin stage is only charged to the nested class.
+		KnotClassLoadStats.Sample outer = KnotClassLoadStats.begin("test.Outer");
+		long time = System.nanoTime();
+
+		KnotClassLoadStats.Sample inner = KnotClassLoadStats.begin("test.Inner");
+		long innerTime = System.nanoTime();
+		spin(nestedNanos);
+		inner.end(KnotClassLoadStats.Stage.MIXIN, innerTime);
+		KnotClassLoadStats.finish(inner);
+
+		outer.end(KnotClassLoadStats.Stage.MIXIN, time);
+		KnotClassLoadStats.finish(outer);
+
+		long outerMixin = outer.stageNanos[KnotClassLoadStats.Stage.MIXIN.ordinal()];
+		testTrue(inner.stageNanos[KnotClassLoadStats.Stage.MIXIN.ordinal()] >= nestedNanos);
+		testTrue(outerMixin >= 0 && outerMixin < nestedNanos / 2);
+
+		// Test: a finished top level sample doesn't become the parent of the next one.
+		KnotClassLoadStats.Sample next = KnotClassLoadStats.begin("test.Next");
+		long nextTime = System.nanoTime();
+		spin(nestedNanos);
+		KnotClassLoadStats.finish(next);
+		outer.end(KnotClassLoadStats.Stage.DEFINE, nextTime);
+		testTrue(outer.stageNanos[KnotClassLoadStats.Stage.DEFINE.ordinal()] >= nestedNanos);
+	}
+}
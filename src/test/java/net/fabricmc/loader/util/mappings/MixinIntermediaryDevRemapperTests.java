@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.util.mappings;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+public class MixinIntermediaryDevRemapperTests {
+	private static final String MAPPINGS = String.join("\n",
+		"v1\tintermediary\tnamed",
+		"CLASS\tnet/minecraft/class_1\tnet/minecraft/block/Block",
+		"CLASS\tnet/minecraft/class_2\tnet/minecraft/world/World",
+		"FIELD\tnet/minecraft/class_2\tI\tfield_2\tseed",
+		"FIELD\tnet/minecraft/class_1\tI\tfield_3\tid",
+		"FIELD\tnet/minecraft/class_2\tI\tfield_3\tdimension",
+		"METHOD\tnet/minecraft/class_1\t(Lnet/minecraft/class_2;)V\tmethod_1\tupdate",
+		"");
+
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompiledMappings.compile(new BufferedReader(new StringReader(MAPPINGS)), "test", out);
+		MixinIntermediaryDevRemapper remapper = new MixinIntermediaryDevRemapper(CompiledMappings.read(out.toByteArray()), "intermediary", "named");
+
+		// Test: mapped names are resolved once and kept.
+		String desc = "(Lnet/minecraft/class_2;)V";
+		testTrue(remapper.mapMethodName(null, "method_1", desc).equals("update"));
+		testTrue(remapper.methodCache.size() == 1);
+		testTrue(remapper.mapMethodName(null, "method_1", desc).equals("update"));
+		testTrue(remapper.methodCache.size() == 1);
+
+		testTrue(remapper.mapFieldName("net/minecraft/class_2", "field_2", "I").equals("seed"));
+		testTrue(remapper.fieldCache.size() == 1);
+
+		// Test: misses aren't kept, mixins applied later may add a super type that has a mapping.
+		testTrue(remapper.mapMethodName(null, "unmapped", "()V").equals("unmapped"));
+		testTrue(remapper.mapMethodName("net/minecraft/class_1", "unmapped", "()V").equals("unmapped"));
+		testTrue(remapper.mapFieldName(null, "unmapped", "I").equals("unmapped"));
+		testTrue(remapper.methodCache.size() == 1);
+		testTrue(remapper.fieldCache.size() == 1);
+
+		// Test: ambiguous lookups without an owner fail every time instead of caching a result.
+		for (int i = 0; i < 2; i++) {
+			boolean failed = false;
+
+			try {
+				remapper.mapFieldName(null, "field_3", "I");
+			} catch (RuntimeException e) {
+				failed = e.getMessage().startsWith("Ambiguous Mixin field lookup");
+			}
+
+			testTrue(failed);
+		}
+
+		testTrue(remapper.fieldCache.size() == 1);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.test;
+
+import net.fabricmc.loader.util.mappings.CompiledMappings;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class CompiledMappingsTests {
+	private static final String MAPPINGS = String.join("\n",
+		"v1\tofficial\tintermediary\tnamed",
+		"CLASS\ta\tnet/minecraft/class_1\tnet/minecraft/Block",
+		"CLASS\tb\tnet/minecraft/class_2\tnet/minecraft/World",
+		"CLASS\tc\tnet/minecraft/class_3",
+		"FIELD\ta\tLb;\td\tfield_1\tworld",
+		"FIELD\tb\tI\td\tfield_2\tséed",
+		"METHOD\ta\t(Lb;)La;\te\tmethod_1\tupdate",
+		"METHOD\tb\t(Lb;)La;\te\tmethod_2\tgetBlock",
+		"METHOD\tc\t()V\tf\tmethod_3",
+		"");
+
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static byte[] compile() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompiledMappings.compile(new BufferedReader(new StringReader(MAPPINGS)), "stamp", out);
+		return out.toByteArray();
+	}
+
+	private static void testCorrupt(byte[] data) {
+		try {
+			CompiledMappings.read(data);
+		} catch (IOException e) {
+			return;
+		}
+
+		throw new RuntimeException("Test failed!");
+	}
+
+	public static void main(String[] args) throws Exception {
+		byte[] data = compile();
+		Path file = Files.createTempFile("mappings", ".bin");
+		Files.write(file, data);
+
+		for (CompiledMappings mappings : new CompiledMappings[] { CompiledMappings.read(data), CompiledMappings.open(file) }) {
+			int official = mappings.getNamespaceId("official");
+			int intermediary = mappings.getNamespaceId("intermediary");
+			int named = mappings.getNamespaceId("named");
+
+			// Test: the header round trips.
+			testTrue(mappings.getStamp().equals("stamp"));
+			testTrue(mappings.getNamespaces().equals(Arrays.asList("official", "intermediary", "named")));
+			testTrue(mappings.getNamespaceId("unknown") == -1);
+
+			// Test: classes are found from any namespace, by internal or binary name.
+			CompiledMappings.Table classes = mappings.getClasses();
+			testTrue(classes.size() == 3);
+			int row = classes.find(official, "b");
+			testTrue(row >= 0 && classes.getName(named, row).equals("net/minecraft/World"));
+			testTrue(classes.find(named, "net.minecraft.World", '.') == row);
+			testTrue(classes.getName(intermediary, row, '.').equals("net.minecraft.class_2"));
+			testTrue(classes.find(official, "x") == -1);
+
+			// Test: names missing from trailing namespaces fall back to the first namespace.
+			row = classes.find(official, "c");
+			testTrue(classes.getName(named, row).equals("c"));
+
+			// Test: members are found with owners and descriptors remapped to the namespace.
+			CompiledMappings.Table fields = mappings.getFields();
+			row = fields.find(named, "net/minecraft/Block", "world", "Lnet/minecraft/World;");
+			testTrue(row >= 0 && fields.getName(official, row).equals("d") && fields.getOwner(official, row).equals("a"));
+			testTrue(fields.getDesc(intermediary, row).equals("Lnet/minecraft/class_2;"));
+			testTrue(fields.find(official, "a", "d", "I") == -1);
+
+			row = fields.find(official, "b", "d", "I");
+			testTrue(row >= 0 && fields.getName(named, row).equals("séed"));
+
+			// Test: members with the same name and descriptor are found regardless of owner.
+			CompiledMappings.Table methods = mappings.getMethods();
+			int[] rows = methods.findAll(official, "e", "(Lb;)La;");
+			testTrue(rows.length == 2);
+			testTrue(methods.findAll(official, "e", "()V").length == 0);
+			row = methods.find(official, "b", "e", "(Lb;)La;");
+			testTrue(row == rows[0] || row == rows[1]);
+			testTrue(methods.getName(named, row).equals("getBlock"));
+
+			// Test: descriptors are mapped between namespaces.
+			testTrue(mappings.mapDesc("(Lb;[La;Ljava/lang/String;)Lc;", official, named).equals("(Lnet/minecraft/World;[Lnet/minecraft/Block;Ljava/lang/String;)Lc;"));
+			testTrue(mappings.mapDesc("(I)V", official, named) == "(I)V");
+		}
+
+		// Test: empty mappings compile.
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompiledMappings.compile(new BufferedReader(new StringReader("v1")), "", out);
+		testTrue(CompiledMappings.read(out.toByteArray()).getClasses().size() == 0);
+
+		// Test: truncated files, trailing data and other formats are rejected with an IOException.
+		for (int length = 0; length < data.length; length++) {
+			testCorrupt(Arrays.copyOf(data, length));
+		}
+
+		testCorrupt(Arrays.copyOf(data, data.length + 4));
+		testCorrupt("v1\tofficial\tnamed\n".getBytes("UTF-8"));
+
+		// Test: corrupt lengths in the header are rejected too.
+		// the stamp length, then the namespace count after the 5 bytes of "stamp" and padding
+		for (int offset : new int[] { 8, 20 }) {
+			byte[] corrupt = data.clone();
+			ByteBuffer.wrap(corrupt).putInt(offset, -5);
+			testCorrupt(corrupt);
+			ByteBuffer.wrap(corrupt).putInt(offset, Integer.MAX_VALUE);
+			testCorrupt(corrupt);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.test;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.loader.transformer.EnvironmentStripIndex;
+import org.objectweb.asm.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class EnvironmentStripIndexTests {
+	private static void testTrue(boolean b) {
+		if (!b) {
+			throw new RuntimeException("Test failed!");
+		}
+	}
+
+	private static byte[] createClass(String name, String clientMethod) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+		MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, clientMethod, "()V", null, null);
+		AnnotationVisitor annotation = method.visitAnnotation(Type.getDescriptor(Environment.class), false);
+		annotation.visitEnum("value", Type.getDescriptor(EnvType.class), EnvType.CLIENT.name());
+		annotation.visitEnd();
+		method.visitCode();
+		method.visitInsn(Opcodes.RETURN);
+		method.visitMaxs(0, 1);
+		method.visitEnd();
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void writeJar(Path jar, String className, byte[] data) throws IOException {
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			// stored, so a class of the same size gives a JAR of the same size
+			ZipEntry entry = new ZipEntry(className + ".class");
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(data.length);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(data);
+			out.closeEntry();
+		}
+	}
+
+	private static long countFiles(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return 0;
+		}
+
+		try (Stream<Path> stream = Files.list(dir)) {
+			return stream.count();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path cacheDir = Files.createTempDirectory("stripIndex");
+
+		// Test: nested JARs live on an in-memory file system, they're indexed but never cached.
+		try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix())) {
+			Path jar = fs.getPath("/nested.jar");
+			byte[] nested = createClass("test/NestedStrip", "clientOnly");
+			writeJar(jar, "test/NestedStrip", nested);
+
+			EnvironmentStripIndex.index(jar, cacheDir);
+			EnvironmentStripIndex.Entry entry = EnvironmentStripIndex.get("test.NestedStrip", nested, EnvType.SERVER);
+			testTrue(entry != null);
+			testTrue(entry.getStripMethods().contains("clientOnly()V"));
+			testTrue(countFiles(cacheDir) == 0);
+
+			// Test: another copy of the class, e.g. from a different mod or a class path directory, isn't covered.
+			testTrue(EnvironmentStripIndex.get("test.NestedStrip", createClass("test/NestedStrip", "clientTwo"), EnvType.SERVER) == null);
+
+			// Test: both copies are covered once the other one is indexed too.
+			Path other = fs.getPath("/other.jar");
+			byte[] otherNested = createClass("test/NestedStrip", "clientTwo");
+			writeJar(other, "test/NestedStrip", otherNested);
+
+			EnvironmentStripIndex.index(other, cacheDir);
+			testTrue(EnvironmentStripIndex.get("test.NestedStrip", otherNested, EnvType.SERVER).getStripMethods().contains("clientTwo()V"));
+			testTrue(EnvironmentStripIndex.get("test.NestedStrip", nested, EnvType.SERVER).getStripMethods().contains("clientOnly()V"));
+
+			// Test: an unreadable JAR falls back to scanning on load instead of failing the launch.
+			Path broken = fs.getPath("/broken.jar");
+			try (OutputStream out = Files.newOutputStream(broken)) {
+				out.write(new byte[] { 'P', 'K', 3, 4, 0, 0 });
+			}
+
+			EnvironmentStripIndex.index(broken, cacheDir);
+			testTrue(countFiles(cacheDir) == 0);
+		}
+
+		// Test: JARs on the default file system are cached, and the cache is reused.
+		Path jar = Files.createTempFile("strip", ".jar");
+		byte[] disk = createClass("test/DiskStrip", "clientOnly");
+		writeJar(jar, "test/DiskStrip", disk);
+
+		EnvironmentStripIndex.index(jar, cacheDir);
+		testTrue(EnvironmentStripIndex.get("test.DiskStrip", disk, EnvType.SERVER).getStripMethods().contains("clientOnly()V"));
+		testTrue(countFiles(cacheDir) == 1);
+
+		Path cacheFile;
+
+		try (Stream<Path> stream = Files.list(cacheDir)) {
+			cacheFile = stream.findFirst().get();
+		}
+
+		byte[] cacheData = Files.readAllBytes(cacheFile);
+		FileTime cacheTime = Files.getLastModifiedTime(cacheFile);
+
+		// replace the class without changing the JAR's size or time, so only a rebuilt index would see the change
+		FileTime jarTime = Files.getLastModifiedTime(jar);
+		byte[] changed = createClass("test/DiskStrip", "clientMain");
+		writeJar(jar, "test/DiskStrip", changed);
+		Files.setLastModifiedTime(jar, jarTime);
+		testTrue(changed.length == disk.length);
+
+		EnvironmentStripIndex.index(jar, cacheDir);
+		testTrue(countFiles(cacheDir) == 1);
+		testTrue(Arrays.equals(Files.readAllBytes(cacheFile), cacheData));
+		testTrue(Files.getLastModifiedTime(cacheFile).equals(cacheTime));
+		testTrue(EnvironmentStripIndex.get("test.DiskStrip", changed, EnvType.SERVER) == null);
+
+		// Test: a JAR that really changed is indexed again.
+		Files.setLastModifiedTime(jar, FileTime.fromMillis(jarTime.toMillis() + 2000));
+		EnvironmentStripIndex.index(jar, cacheDir);
+		testTrue(!Arrays.equals(Files.readAllBytes(cacheFile), cacheData));
+		testTrue(EnvironmentStripIndex.get("test.DiskStrip", changed, EnvType.SERVER).getStripMethods().contains("clientMain()V"));
+	}
+}